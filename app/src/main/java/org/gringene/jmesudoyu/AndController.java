@@ -35,14 +35,21 @@ import org.gringene.jmesudoyu.base.Board;
 import org.gringene.jmesudoyu.base.Commander;
 import org.gringene.jmesudoyu.base.Controller;
 import org.gringene.jmesudoyu.base.GlobalVar;
+import org.gringene.jmesudoyu.base.MoveJournal;
+import org.gringene.jmesudoyu.base.PuzzlePool;
+import org.gringene.jmesudoyu.base.RatingCache;
 import org.gringene.jmesudoyu.base.SaveResource;
+import org.gringene.jmesudoyu.base.SaveStore;
 
 import java.io.*;
 
 public class AndController implements Controller, DialogInterface.OnClickListener {
-  private static byte[] SAVEVERSION = {2, 0}; // version 2 is the first Android version
   Board gameBoard;
   Commander gameCommand;
+  PuzzlePool puzzlePool;
+  RatingCache ratingCache;
+  SaveStore saveStore;
+  MoveJournal moveJournal;
   AndPainter gamePainter;
   Activity gameActivity;
   Thread thread;
@@ -64,6 +71,15 @@ public class AndController implements Controller, DialogInterface.OnClickListene
         w / 18 - fh / 4 + 1,
         h / 18 - fh / 2 + 1);
     gameCommand = new Commander(this, gameBoard, gamePainter);
+    puzzlePool = new PuzzlePool(new File(gameActivity.getFilesDir(), "sudPool.dat"));
+    gameCommand.setPuzzlePool(puzzlePool);
+    ratingCache = new RatingCache(new File(gameActivity.getFilesDir(), "sudRatings.dat"),
+        RatingCache.DEFAULT_CAPACITY);
+    ratingCache.load();
+    gameCommand.setRatingCache(ratingCache);
+    saveStore = new SaveStore(new File(gameActivity.getFilesDir(), "sudSave.dat"));
+    moveJournal = new MoveJournal(new File(gameActivity.getFilesDir(), "sudMoves.dat"));
+    moveJournal.attach(gameBoard);
   }
 
   protected void keyRepeated(int keyCode) {}
@@ -105,14 +121,22 @@ public class AndController implements Controller, DialogInterface.OnClickListene
   public void init() {
     loadBoard();
     gameCommand.init();
+    puzzlePool.start();
   }
   public void pause() throws InterruptedException {
     saveBoard();
+    puzzlePool.stop();
+    ratingCache.save();
   }
   public void resume() {
+    puzzlePool.start();
   }
   public void destroy(boolean unconditional) {
     saveBoard();
+    saveStore.flush();
+    moveJournal.close();
+    puzzlePool.stop();
+    ratingCache.save();
     if (unconditional) {
       System.out.println("Quitting due to a command, not a request");
     }
@@ -120,6 +144,10 @@ public class AndController implements Controller, DialogInterface.OnClickListene
   }
   public void quit(){
     saveBoard();
+    saveStore.flush();
+    moveJournal.close();
+    puzzlePool.stop();
+    ratingCache.save();
     gameActivity.finish();
   }
 
@@ -127,7 +155,18 @@ public class AndController implements Controller, DialogInterface.OnClickListene
    * @see org.gringene.jmesudoyu.base.Controller#loadBoard()
    */
   public void loadBoard() {
-    int firstRecordSize = 0;
+    boolean boardRestored = (moveJournal.restore(gameBoard) >= 0);
+    if(boardRestored){
+      System.out.println("Restored game board from move journal");
+    }
+    SaveResource[] savedResources = saveStore.load();
+    if(savedResources.length > 0){
+      System.out.println("Loading from save file");
+      for(int i = 0; i < savedResources.length; i++){
+        loadResource(savedResources[i], !boardRestored);
+      }
+      return;
+    }
     System.out.println("Attempting to load from record store");
     SharedPreferences prefStore = gameActivity.getPreferences(Context.MODE_PRIVATE);
     int numRecords = prefStore.getInt("saveCount",0);
@@ -162,57 +201,46 @@ public class AndController implements Controller, DialogInterface.OnClickListene
           System.out.println("Warning: " + tmpResult.length +
               " bytes left over from resource " + i);
         }
-        if(tmpSR.getIDInt() == SaveResource.BOARDDATA){
-          System.out.println("Loading game board");
-          tmpSR.getData(gameBoard);
-        }
-        if(tmpSR.getIDInt() == SaveResource.GAMESETTINGS){
-          System.out.println("Loading game settings");
-          String[] settingsKeys = new String[Commander.SETTINGSSIZE];
-          int[] settingsValues = new int[Commander.SETTINGSSIZE];
-          tmpSR.getData(settingsKeys, settingsValues);
-          gameCommand.loadSettings(settingsKeys, settingsValues);
-        }
+        loadResource(tmpSR, !boardRestored);
       }
     }
   }
+
+  /**
+   * Applies a loaded resource to the game board or settings.
+   *
+   * @param tmpSR
+   *            resource to apply
+   * @param useBoard
+   *            false if board resources should be ignored (because the
+   *            board has been restored from the move journal)
+   */
+  private void loadResource(SaveResource tmpSR, boolean useBoard){
+    if(useBoard && (tmpSR.getIDInt() == SaveResource.BOARDDATA)){
+      System.out.println("Loading game board");
+      tmpSR.getData(gameBoard);
+    }
+    if(tmpSR.getIDInt() == SaveResource.GAMESETTINGS){
+      System.out.println("Loading game settings");
+      String[] settingsKeys = new String[Commander.SETTINGSSIZE];
+      int[] settingsValues = new int[Commander.SETTINGSSIZE];
+      tmpSR.getData(settingsKeys, settingsValues);
+      gameCommand.loadSettings(settingsKeys, settingsValues);
+    }
+  }
   /* (non-Javadoc)
    * @see org.gringene.jmesudoyu.base.Controller#saveBoard()
    */
   public void saveBoard() {
-    SharedPreferences prefStore = gameActivity.getPreferences(Context.MODE_PRIVATE);
-    prefStore.edit().putInt("saveVersion",AndController.SAVEVERSION[0] + AndController.SAVEVERSION[1] << 8);
-    SaveResource tmpSR = new SaveResource();
-    tmpSR.setID(SaveResource.BOARDDATA); tmpSR.setData(gameBoard);
-    this.rsSave(0,tmpSR.saveData());
+    // only the moves made since the last save are written
+    moveJournal.save();
     String[] settingsKeys = new String[Commander.SETTINGSSIZE];
     int[] settingsValues = new int[Commander.SETTINGSSIZE];
     gameCommand.saveSettings(settingsKeys, settingsValues);
-    tmpSR.setID(SaveResource.GAMESETTINGS); tmpSR.setData(settingsKeys, settingsValues);
-    this.rsSave(1,tmpSR.saveData());
-    prefStore.edit().putInt("saveCount",2);
-  }
-  /**
-   * Function to store a byte array into a particular (opened) record store.
-   * This method is set up to reduce the mess of exceptions and repeated code.
-   *
-   * @param tmpNum
-   *            Record number to store data in
-   * @param data
-   *            data to save into RecordStore
-   */
-  private void rsSave(int tmpNum, byte[] data){
-    if(data != null){
-      try{
-        FileOutputStream fos = gameActivity.openFileOutput(String.format("sudRStore_%03d",tmpNum),Context.MODE_PRIVATE);
-        fos.write(data);
-        fos.close();
-        System.out.println("Stored data in record # "+ tmpNum);
-      } catch (Exception e){
-        System.out.println("Unable to store data in record # "+ tmpNum +
-            ": " + e.getMessage());
-      }
-    }
+    SaveResource settingsSR = new SaveResource();
+    settingsSR.setID(SaveResource.GAMESETTINGS); settingsSR.setData(settingsKeys, settingsValues);
+    // written in the background; see SaveStore
+    saveStore.save(new SaveResource[] {settingsSR});
   }
   public void makeProgress(String title, String[] labels, int[] limits, GlobalVar[] values, int cancelOptions){
     ProgressDialog p = new ProgressDialog(gameActivity);
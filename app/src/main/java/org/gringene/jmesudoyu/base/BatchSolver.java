@@ -0,0 +1,472 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Solves and rates a stream of puzzles, one puzzle per line, using several
+ * worker threads. Each line should start with the 81 cells of the puzzle,
+ * row by row, with '1'-'9' for clues and '.' or '0' for blanks; anything
+ * after the first 81 characters is ignored. For every line, one line is
+ * written out, in the same order as the input:
+ * <pre>
+ * solution rating
+ * </pre>
+ * where the rating is the SolveReport difficulty name if the puzzle can be
+ * solved by logic, "beyond" if it has a unique solution that the logic can't
+ * reach, "multiple" if it has more than one solution (the first one found is
+ * written), "invalid" if it has no solution (the puzzle is written instead),
+ * or "unreadable" if the line isn't a puzzle (the line is written, cut or
+ * padded to 81 characters).
+ * <p>
+ * Each worker keeps its own Board, and puzzles are handed out through a
+ * fixed ring of work slots that is also used to put the results back in
+ * order. A puzzle is only read once the result that is a ring's length
+ * behind it has been written, so memory use does not depend on the size of
+ * the input, and nothing is allocated for each puzzle.
+ * </p>
+ *
+ * @author gringer
+ * @see SolveReport#getDifficulty()
+ */
+public class BatchSolver {
+  /** Default number of puzzles that can be in progress at once */
+  public static final int DEFAULT_WINDOW = 1024;
+
+  private static final byte[][] RATINGS = new byte[SolveReport.DIFFICULTY_NAMES
+      .length + 4][];
+
+  private static final int BEYOND = SolveReport.DIFFICULTY_NAMES.length;
+
+  private static final int MULTIPLE = BEYOND + 1;
+
+  private static final int INVALID = BEYOND + 2;
+
+  private static final int NOTPUZZLE = BEYOND + 3;
+
+  static {
+    for (int d = 0; d < BEYOND; d++) {
+      RATINGS[d] = SolveReport.DIFFICULTY_NAMES[d].getBytes();
+    }
+    RATINGS[BEYOND] = "beyond".getBytes();
+    RATINGS[MULTIPLE] = "multiple".getBytes();
+    RATINGS[INVALID] = "invalid".getBytes();
+    RATINGS[NOTPUZZLE] = "unreadable".getBytes();
+  }
+
+  private final int numWorkers;
+
+  private final Slot[] slots;
+
+  private int logLevel = Board.LOGIC_LIMIT;
+
+  private final long[] ratingCounts = new long[RATINGS.length];
+
+  private long numPuzzles;
+
+  private long nanoTime;
+
+  private volatile IOException writeError;
+
+  /**
+   * Creates a batch solver with one worker for each available processor.
+   */
+  public BatchSolver() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_WINDOW);
+  }
+
+  /**
+   * Creates a batch solver.
+   *
+   * @param tWorkers
+   *           number of worker threads
+   * @param tWindow
+   *           number of puzzles that can be in progress at once
+   */
+  public BatchSolver(int tWorkers, int tWindow) {
+    numWorkers = Math.max(1, tWorkers);
+    slots = new Slot[Math.max(numWorkers * 2, tWindow)];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new Slot();
+    }
+  }
+
+  /**
+   * Sets the highest logic level used to solve and rate the puzzles.
+   *
+   * @param tLevel
+   *           maximum logic level
+   */
+  public void setLogLevel(int tLevel) {
+    logLevel = tLevel;
+  }
+
+  /**
+   * Solves every puzzle from an input stream, writing the results to an
+   * output stream. Neither stream is closed, but the output is flushed.
+   *
+   * @param in
+   *           stream to read puzzles from
+   * @param out
+   *           stream to write results to
+   * @return the number of lines processed
+   * @throws IOException
+   *            if reading or writing fails
+   */
+  public synchronized long solve(InputStream in, OutputStream out)
+      throws IOException {
+    long startTime = System.nanoTime();
+    numPuzzles = 0;
+    writeError = null;
+    for (int r = 0; r < ratingCounts.length; r++) {
+      ratingCounts[r] = 0;
+    }
+    final Semaphore free = new Semaphore(slots.length);
+    final BlockingQueue<Slot> work = new ArrayBlockingQueue<Slot>(slots.length
+        + numWorkers);
+    Thread[] workers = new Thread[numWorkers];
+    for (int w = 0; w < numWorkers; w++) {
+      workers[w] = new Thread(new Worker(work), "BatchSolver");
+      workers[w].setDaemon(true);
+      workers[w].start();
+    }
+    Thread writer = new Thread(new Writer(out, free), "BatchSolver writer");
+    writer.setDaemon(true);
+    writer.start();
+    byte[] buf = new byte[65536];
+    int pos = 0;
+    int limit = 0;
+    long seq = 0;
+    try {
+      boolean eof = false;
+      while (true) {
+        free.acquireUninterruptibly();
+        Slot tSlot = slots[(int) (seq % slots.length)];
+        int len = 0;
+        boolean eol = false;
+        while (!eol) {
+          if (pos == limit) {
+            limit = in.read(buf);
+            pos = 0;
+            if (limit <= 0) {
+              limit = 0;
+              eof = true;
+              break;
+            }
+          }
+          byte b = buf[pos++];
+          if (b == '\n') {
+            eol = true;
+          } else if (len < 81) {
+            tSlot.line[len++] = b;
+          } else {
+            len++;
+          }
+        }
+        if ((eof && (len == 0)) || (writeError != null)) {
+          // mark the end for the writer
+          synchronized (tSlot) {
+            tSlot.end = true;
+            tSlot.done = true;
+            tSlot.notifyAll();
+          }
+          break;
+        }
+        if ((len > 0) && (len <= 81) && (tSlot.line[len - 1] == '\r')) {
+          len--;
+        }
+        tSlot.length = len;
+        tSlot.end = false;
+        seq++;
+        try {
+          work.put(tSlot);
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while reading puzzles");
+        }
+      }
+    } finally {
+      Slot tStop = new Slot();
+      tStop.length = -1;
+      for (int w = 0; w < numWorkers; w++) {
+        work.offer(tStop);
+      }
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while writing results");
+    }
+    nanoTime = System.nanoTime() - startTime;
+    if (writeError != null) {
+      throw writeError;
+    }
+    numPuzzles = seq;
+    return seq;
+  }
+
+  /**
+   * Retrieves the number of lines processed by the most recent solve.
+   *
+   * @return number of lines
+   */
+  public long getCount() {
+    return numPuzzles;
+  }
+
+  /**
+   * Retrieves the number of puzzles given a particular rating by the most
+   * recent solve.
+   *
+   * @param tRating
+   *           SolveReport difficulty (GENTLE to FIENDISH)
+   * @return number of puzzles with that rating
+   */
+  public long getCount(int tRating) {
+    return ratingCounts[tRating];
+  }
+
+  /**
+   * Retrieves the time taken by the most recent solve.
+   *
+   * @return time in nanoseconds
+   */
+  public long getNanoTime() {
+    return nanoTime;
+  }
+
+  /**
+   * Retrieves the throughput of the most recent solve.
+   *
+   * @return puzzles solved per second
+   */
+  public double getRate() {
+    return (nanoTime == 0) ? 0 : (numPuzzles * 1e9 / nanoTime);
+  }
+
+  /**
+   * Produces a summary of the most recent solve: the number of puzzles, the
+   * time taken and the throughput, followed by the number of puzzles with
+   * each rating.
+   *
+   * @return summary text
+   */
+  public String statsString() {
+    StringBuffer retVal = new StringBuffer();
+    retVal.append("Solved ").append(numPuzzles).append(" puzzles in ")
+        .append(nanoTime / 1000000).append("ms (")
+        .append((long) getRate()).append(" puzzles/s)\n");
+    for (int r = 0; r < RATINGS.length; r++) {
+      retVal.append(new String(RATINGS[r])).append(": ")
+          .append(ratingCounts[r]).append("\n");
+    }
+    return retVal.toString();
+  }
+
+  /**
+   * One line of input, and its result once a worker has finished with it.
+   */
+  private static class Slot {
+    final byte[] line = new byte[81];
+
+    final byte[] result = new byte[81 + 12];
+
+    int length;
+
+    int resultLength;
+
+    int rating;
+
+    boolean end;
+
+    boolean done;
+  }
+
+  private class Worker implements Runnable {
+    private final BlockingQueue<Slot> work;
+
+    private final Board board = new Board();
+
+    private final SolveReport report = new SolveReport();
+
+    private final int[] cells = new int[81];
+
+    Worker(BlockingQueue<Slot> tWork) {
+      work = tWork;
+    }
+
+    public void run() {
+      while (true) {
+        Slot tSlot;
+        try {
+          tSlot = work.take();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (tSlot.length < 0) {
+          return;
+        }
+        process(tSlot);
+        synchronized (tSlot) {
+          tSlot.done = true;
+          tSlot.notifyAll();
+        }
+      }
+    }
+
+    private void process(Slot tSlot) {
+      boolean readable = (tSlot.length >= 81);
+      for (int i = 0; readable && (i < 81); i++) {
+        byte b = tSlot.line[i];
+        if ((b >= '1') && (b <= '9')) {
+          cells[i] = 1 << (b - '1');
+        } else if ((b == '.') || (b == '0')) {
+          cells[i] = 511;
+        } else {
+          readable = false;
+        }
+      }
+      if (!readable) {
+        for (int i = 0; i < 81; i++) {
+          tSlot.result[i] = (i < Math.min(tSlot.length, 81)) ?
+              tSlot.line[i] : (byte) '.';
+        }
+        finish(tSlot, NOTPUZZLE);
+        return;
+      }
+      board.staticLoadClear(cells);
+      board.applyLogic(logLevel, report);
+      int tRating = report.getDifficulty();
+      int tSignature = board.signature();
+      if (tSignature == Point.MULTIPLE) {
+        int numSolutions = board.solveCompletely(2);
+        tRating = (numSolutions == 0) ? INVALID :
+            ((numSolutions == 1) ? BEYOND : MULTIPLE);
+      } else if (tSignature == Point.BLANK) {
+        tRating = INVALID;
+      }
+      if (tRating == INVALID) {
+        System.arraycopy(tSlot.line, 0, tSlot.result, 0, 81);
+      } else {
+        board.staticSave(cells);
+        for (int i = 0; i < 81; i++) {
+          tSlot.result[i] = (byte) ('1'
+              + Integer.numberOfTrailingZeros(cells[i]));
+        }
+      }
+      finish(tSlot, tRating);
+    }
+
+    private void finish(Slot tSlot, int tRating) {
+      byte[] tName = RATINGS[tRating];
+      tSlot.result[81] = ' ';
+      System.arraycopy(tName, 0, tSlot.result, 82, tName.length);
+      tSlot.result[82 + tName.length] = '\n';
+      tSlot.resultLength = 83 + tName.length;
+      tSlot.rating = tRating;
+    }
+  }
+
+  private class Writer implements Runnable {
+    private final OutputStream out;
+
+    private final Semaphore free;
+
+    Writer(OutputStream tOut, Semaphore tFree) {
+      out = new BufferedOutputStream(tOut, 65536);
+      free = tFree;
+    }
+
+    public void run() {
+      long seq = 0;
+      try {
+        while (true) {
+          Slot tSlot = slots[(int) (seq % slots.length)];
+          synchronized (tSlot) {
+            while (!tSlot.done) {
+              tSlot.wait();
+            }
+            tSlot.done = false;
+          }
+          if (tSlot.end) {
+            break;
+          }
+          if (writeError == null) {
+            out.write(tSlot.result, 0, tSlot.resultLength);
+            ratingCounts[tSlot.rating]++;
+          }
+          seq++;
+          free.release();
+        }
+        out.flush();
+      } catch (IOException e) {
+        writeError = e;
+        free.release(slots.length);
+      } catch (InterruptedException e) {
+        writeError = new IOException("Interrupted while writing results");
+        free.release(slots.length);
+      }
+    }
+  }
+
+  /**
+   * Solves a file of puzzles from the command line:
+   * <pre>
+   * BatchSolver input|- [output] [workers]
+   * </pre>
+   * Results go to standard output if no output file is given, and the
+   * summary goes to standard error.
+   *
+   * @param args
+   *           command line arguments
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: BatchSolver input|- [output] [workers]");
+      return;
+    }
+    int tWorkers = (args.length > 2) ? Integer.parseInt(args[2])
+        : Runtime.getRuntime().availableProcessors();
+    InputStream in = args[0].equals("-") ? System.in
+        : new FileInputStream(args[0]);
+    OutputStream out = (args.length > 1) ? new FileOutputStream(args[1])
+        : (OutputStream) System.out;
+    BatchSolver solver = new BatchSolver(tWorkers, DEFAULT_WINDOW);
+    try {
+      solver.solve(in, out);
+    } finally {
+      if (in != System.in) {
+        in.close();
+      }
+      if (out != System.out) {
+        out.close();
+      }
+    }
+    System.err.print(solver.statsString());
+  }
+}
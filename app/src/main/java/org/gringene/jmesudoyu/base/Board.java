@@ -19,8 +19,6 @@
 
 package org.gringene.jmesudoyu.base;
 
-import java.util.Random;
-
 /**
  * Main logic processing class for the program. This class integrates the
  * various logic functions in the Point and Line classes, and is the interface
@@ -36,8 +34,15 @@ import java.util.Random;
  *
  */
 public class Board {
-  public static int LOGIC_LIMIT = 5;
-  int LOGIC_MAX = 4;
+  public static final int LOGIC_LIMIT = 6;
+  int LOGIC_MAX = 6;
+
+  /** makeProblem removes clues in a random order, trying each once */
+  public static final int REMOVE_RANDOM = 0;
+  /** makeProblem tries clues with the most given peers first */
+  public static final int REMOVE_ORDERED = 1;
+  /** makeProblem backtracks, with limited discrepancy from REMOVE_ORDERED */
+  public static final int REMOVE_BACKTRACK = 2;
 
   Line boxes[];
 
@@ -47,16 +52,65 @@ public class Board {
 
   Point board[];
 
-  Random rGen;
+  Grid grid;
+
+  SplitMix64 rGen;
+
+  long seed;
+
+  DancingLinks exactSolver;
+
+  MaskSolver fastSolver;
+
+  Propagator propagator;
+
+  FishTechnique fish;
+
+  SolveReport report;
+
+  boolean[] singlePoints;
+
+  boolean queuedLogic;
+
+  volatile boolean doCreate;
+
+  volatile boolean hasStopped;
+
+  int removalMode = REMOVE_RANDOM;
+
+  int maxDiscrepancy = 2;
+
+  boolean keepSolverState = true;
+
+  GridFactory gridFactory;
+
+  /* journal that moves made on this board are recorded in (may be null) */
+  MoveJournal journal;
+
+  /* state of the clue removal search in makeProblem */
+  private long createStart;
+
+  private int createLimit;
 
-  boolean doCreate;
+  private int numAttempts;
 
-  boolean hasStopped;
+  private int numClues;
+
+  private int bestClues;
+
+  private final int[] bestGame = new int[81];
+
+  private final boolean[] givens = new boolean[81];
+
+  private final int[] clueTimes = new int[82];
 
   /**
    * Creates a blank board. All points on the board are set up, and the points
-   * are linked into their associated rows, columns and boxes.
+   * are linked into their associated rows, columns and boxes. The candidate
+   * numbers for each point are stored in a flat Grid, with the Points acting
+   * as views onto that Grid.
    *
+   * @see Grid
    * @see Point
    * @see Line
    * @see Box
@@ -66,7 +120,13 @@ public class Board {
     rows = new Line[9];
     columns = new Line[9];
     boxes = new Line[9];
-    rGen = new Random();
+    grid = new Grid();
+    propagator = new Propagator(grid);
+    fish = new FishTechnique();
+    report = new SolveReport();
+    singlePoints = new boolean[81];
+    queuedLogic = true;
+    setSeed(new SplitMix64().nextLong());
     doCreate = true;
     for (int i = 0; i < 9; i++) {
       rows[i] = new Line();
@@ -75,7 +135,7 @@ public class Board {
     }
     for (int r = 0; r < 9; r++) {
       for (int c = 0; c < 9; c++) {
-        Point pTemp = new Point();
+        Point pTemp = new Point(grid, r * 9 + c);
         board[r * 9 + c] = pTemp;
         pTemp.setRow(rows[r], c);
         pTemp.setColumn(columns[c], r);
@@ -100,14 +160,89 @@ public class Board {
    * @see Point#signature()
    */
   public int signature() {
-    int sVal = Point.SINGLE;
-    for (int i = 0; (sVal > 0) && (i < 81); i++) {
-      if (board[i].signature() == Point.BLANK)
-        sVal = Point.BLANK;
-      else if (board[i].signature() == Point.MULTIPLE)
-        sVal = Point.MULTIPLE;
-    }
-    return sVal;
+    return grid.signature();
+  }
+
+  /**
+   * Retrieves the flat candidate storage that backs the Points on this board.
+   * Changes made to the Grid are immediately visible through the Points, but
+   * do not update the changed flags of the rows, columns and boxes.
+   *
+   * @return the Grid for this board
+   */
+  public Grid getGrid() {
+    return grid;
+  }
+
+  /**
+   * Retrieves the propagation engine used by applyLogic, so that techniques
+   * can be added and their statistics examined.
+   *
+   * @return the Propagator for this board
+   */
+  public Propagator getPropagator() {
+    return propagator;
+  }
+
+  /**
+   * Sets the seed for the random choices made by makeSolution and
+   * makeProblem. Starting from a blank board with the same seed gives the
+   * same solution and puzzle, as long as makeProblem is not stopped by its
+   * time limit.
+   *
+   * @param tSeed
+   *           seed for the random number generator
+   * @see SplitMix64
+   */
+  public void setSeed(long tSeed) {
+    seed = tSeed;
+    rGen = new SplitMix64(tSeed);
+  }
+
+  /**
+   * Retrieves the seed most recently set for this board.
+   *
+   * @return the random number seed
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Marks the current candidates on the board, so that they can be restored
+   * with rollback(int). Restoring only undoes the changes made since the
+   * mark, rather than reloading the whole board. Only candidate numbers are
+   * restored; locked and error flags are left as they are.
+   *
+   * @return the mark for the current state
+   * @see Grid#mark()
+   */
+  public int mark() {
+    return grid.mark();
+  }
+
+  /**
+   * Restores the candidates on the board to the state they were in when a
+   * mark was made. The mark remains held until it is released.
+   *
+   * @param tMark
+   *           mark returned by mark()
+   * @see Grid#rollback(int)
+   */
+  public void rollback(int tMark) {
+    grid.rollback(tMark);
+    this.setChanged();
+  }
+
+  /**
+   * Releases a mark, keeping any changes made since it was made.
+   *
+   * @param tMark
+   *           mark returned by mark()
+   * @see Grid#release(int)
+   */
+  public void release(int tMark) {
+    grid.release(tMark);
   }
 
   /**
@@ -117,8 +252,11 @@ public class Board {
    * numbers (selected from all possible candidates on the board) to derive a
    * completed grid. The fullest possible logic is applied after each placement
    * of a new number, which should reduce the chances of failed attempts at
-   * generating solutions. If an attempt <em>does</em> create a solution that
-   * involves contradictions, the method will finish, rather than trying again.
+   * generating solutions. If a placement leads to a contradiction, it is
+   * taken back and that number is ruled out for the cell; if ruling it out
+   * also leads to a contradiction, the earlier placements are taken back in
+   * turn. The board only ends up with a contradiction if the starting layout
+   * has no solution.
    * During the solution creation process, a monitor variable is updated
    * (indicating the number of board positions that are completed), so that
    * feedback on the process can be provided to the end user.
@@ -137,27 +275,117 @@ public class Board {
    */
   public void makeSolution(GlobalVar ta) {
     doCreate = true;
-    applyLogic(LOGIC_MAX);
+    applyLogic(LOGIC_MAX, report);
     int[] gbCands = new int[81];
     int[] bCands = new int[9];
+    // placements still held, with the mark made before each one
+    int[] tMarks = new int[81];
+    int[] tPositions = new int[81];
+    int[] tPlaced = new int[81];
+    int depth = 0;
     int numCands, numBits;
-    Point tPoint;
     ta.setValue(0);
     while ((signature() > 1) && (doCreate)) {
       numCands = getCandidates(gbCands, Point.MULTIPLE);
-      tPoint = board[gbCands[(rGen.nextInt() >>> 1) % numCands]];
-      numBits = tPoint.getBits(bCands);
+      int pos = gbCands[rGen.nextInt(numCands)];
+      numBits = board[pos].getBits(bCands);
       this.clearChanged();
-      tPoint.setExact(bCands[(rGen.nextInt() >>> 1) % numBits]);
-      applyLogic(LOGIC_MAX);
+      tMarks[depth] = mark();
+      tPositions[depth] = pos;
+      tPlaced[depth] = bCands[rGen.nextInt(numBits)];
+      board[pos].setExact(tPlaced[depth]);
+      depth++;
+      applyLogic(LOGIC_MAX, report);
+      while ((signature() == Point.BLANK) && (depth > 0)) {
+        // that number can't go there, so take it back and rule it out
+        depth--;
+        rollback(tMarks[depth]);
+        release(tMarks[depth]);
+        board[tPositions[depth]].remBits(tPlaced[depth]);
+        applyLogic(LOGIC_MAX, report);
+      }
       ta.setValue(countComplete());
     }
+    while (depth > 0) {
+      depth--;
+      release(tMarks[depth]);
+    }
     if (!doCreate) {
       System.out.println("Told to stop solution creation");
     }
     this.setChanged();
   }
 
+  /**
+   * Generates a completed Sudoku grid using a grid factory, replacing the
+   * current layout of the game board. Unlike makeSolution(GlobalVar), this
+   * always produces a completed grid, and takes the same short time to do
+   * it. The transformation is chosen using this board's random number
+   * generator, so the grid can be made again from the same seed.
+   *
+   * @param tFactory
+   *           Factory used to make the grid
+   * @param ta
+   *           Monitor variable for the number of completed board placements
+   *
+   * @see #setSeed(long)
+   */
+  public void makeSolution(GridFactory tFactory, GlobalVar ta) {
+    doCreate = true;
+    int[] tGrid = new int[81];
+    tFactory.nextGrid(rGen, tGrid);
+    for (int i = 0; i < 81; i++) {
+      board[i].setExact(tGrid[i]);
+    }
+    ta.setValue(countComplete());
+    this.setChanged();
+  }
+
+  /**
+   * Sets a grid factory for makeSolution to use when making puzzles with
+   * PuzzleGenerator, or null to build each grid with makeSolution(GlobalVar).
+   *
+   * @param tFactory
+   *           Factory used to make completed grids
+   * @see PuzzleGenerator#makePuzzle(Board, long, int, boolean, GlobalVar,
+   *      GlobalVar)
+   */
+  public void setGridFactory(GridFactory tFactory) {
+    this.gridFactory = tFactory;
+  }
+
+  /**
+   * Sets the journal that moves made on this board should be recorded in.
+   * This is normally done by MoveJournal.attach(Board).
+   *
+   * @param tJournal
+   *           journal to record moves in, or null to stop recording
+   * @see MoveJournal#attach(Board)
+   */
+  void setJournal(MoveJournal tJournal) {
+    this.journal = tJournal;
+  }
+
+  /**
+   * Records a move in the journal (if there is one). Moves made while a mark
+   * is held are not recorded, as they will be rolled back.
+   */
+  private void journalMove(int tType, int tx, int ty, int tNum) {
+    if ((journal != null) && !grid.isMarked()) {
+      journal.record(tType, Grid.index(tx, ty), tNum);
+    }
+  }
+
+  /**
+   * Records the whole board in the journal (if there is one), after it has
+   * been loaded or changed by an UndoHistory.
+   */
+  void journalBoard() {
+    if ((journal != null) && !grid.isMarked()) {
+      journal.checkpoint();
+    }
+  }
+
   /**
    * Sends a signal to the creator methods (makeProblem, makeSolution) to stop
    * what they are doing. The method will wait up to two seconds before
@@ -199,15 +427,28 @@ public class Board {
    * be provided to the end user.
    * </p>
    * <p>
-   * The current method of generating a puzzle is to remove numbers, then
-   * check to see if the puzzle is still solvable with the logic available to
-   * this program. If a removal reduces the puzzle to something that has a
-   * potentially ambiguous solution, then the board is restored to the state
-   * it was before that removal, and another removal is attempted. This
-   * process continues until all possible removals have been attempted. There
-   * is no additional backtracking in the current method, so puzzles with more
-   * removed numbers may be possible, given a different sequence of removed
-   * numbers.
+   * A puzzle is generated by removing numbers, then checking to see if the
+   * puzzle is still solvable with the logic available to this program. If a
+   * removal reduces the puzzle to something that has a potentially ambiguous
+   * solution, then the board is restored to the state it was before that
+   * removal, and another removal is attempted. The order in which removals
+   * are tried is chosen with setRemovalMode:
+   * </p>
+   * <ul>
+   * <li>REMOVE_RANDOM (the default) tries each clue once, in a random order,
+   * until all possible removals have been attempted. There is no
+   * backtracking, so puzzles with more removed numbers may be possible,
+   * given a different sequence of removed numbers.</li>
+   * <li>REMOVE_ORDERED tries each clue once, starting with the clues that
+   * have the most given peers (which are the most likely to be
+   * redundant).</li>
+   * <li>REMOVE_BACKTRACK first removes clues as REMOVE_ORDERED does, then
+   * searches again allowing 1, 2, ... (up to a limit) departures from that
+   * order, and keeps the puzzle with the fewest clues found.</li>
+   * </ul>
+   * <p>
+   * Every strategy stops early if the time limit is reached, leaving the
+   * puzzle with the fewest clues found so far.
    * </p>
    * <p>
    * If this method is stopped, then the board will remain in the state it was
@@ -236,7 +477,6 @@ public class Board {
     int numCands;
     int pos;
     int[] newGame = new int[81];
-    int[] oldGame = new int[81];
     boolean[] pCands = new boolean[81];
     doCreate = true;
     if (signature() == 0) {
@@ -245,41 +485,74 @@ public class Board {
     }
     this.staticSave(newGame);
     staticLoadClear(newGame);
-    this.applyLogic(LOGIC_MAX);
+    int puzzleMark = mark();
+    this.applyLogic(LOGIC_MAX, report);
     if (signature() != 1) {
       System.out.println("Not solvable");
+      release(puzzleMark);
       hasStopped = true;
       return;
     }
+    rollback(puzzleMark);
+    createStart = inTime;
+    createLimit = maxTime;
+    numClues = getCandidates(pCands);
+    System.arraycopy(pCands, 0, givens, 0, 81);
+    if (keepSolverState) {
+      removeGivenPeers();
+    }
+    for (int i = 0; i < clueTimes.length; i++) {
+      clueTimes[i] = -1;
+    }
+    clueTimes[numClues] = 0;
     ia = 0;
-    getCandidates(pCands);
-    while (doCreate && (ia < 81)
-        && ((System.currentTimeMillis() - inTime) < maxTime)) {
-      do {
-        staticLoadClear(newGame);
-        System.arraycopy(oldGame,0,newGame,0,81);
-        numCands = getCandidates(gbCands, pCands, Point.SINGLE);
-        if(numCands != 0){
-          pos = gbCands[(rGen.nextInt() >>> 1) % numCands];
-          this.clearChanged();
-          board[pos].clearValue();
-          pCands[pos] = false;
-          ia++;
-          if (useSymmetry && (pos != 40)) {
-            board[80 - pos].clearValue();
-            pCands[80 - pos] = false;
-            ia++;
-          }
-          ta.setValue(ia);
-          tt.setValue((int) (System.currentTimeMillis() - inTime));
-          this.staticSave(newGame);
-          // newGame == something that is being tested
-          applyLogic(LOGIC_MAX, false);
+    if (removalMode != REMOVE_RANDOM) {
+      numAttempts = 0;
+      bestClues = numClues;
+      saveGivens(bestGame);
+      for (int d = 0; (d <= ((removalMode == REMOVE_BACKTRACK) ?
+          maxDiscrepancy : 0)) && doCreate && !createTimeUp(); d++) {
+        searchRemovals(d, pCands, useSymmetry, ta, tt);
+      }
+      ia = numAttempts;
+      staticLoadClear(bestGame);
+    }
+    while ((removalMode == REMOVE_RANDOM) && doCreate && (ia < 81)
+        && !createTimeUp()) {
+      numCands = getCandidates(gbCands, pCands, Point.SINGLE);
+      if (numCands == 0) {
+        break;
+      }
+      pos = gbCands[rGen.nextInt(numCands)];
+      int pair = (useSymmetry && (pos != 40)) ? (80 - pos) : -1;
+      int tRemoved = ((pair >= 0) && givens[pair]) ? 2 : 1;
+      boolean pairGiven = (pair >= 0) && givens[pair];
+      int removeMark = mark();
+      pCands[pos] = false;
+      ia++;
+      if (pair >= 0) {
+        pCands[pair] = false;
+        ia++;
+      }
+      ta.setValue(ia);
+      tt.setValue((int) (System.currentTimeMillis() - inTime));
+      if (tryRemoval(pos, pair)) {
+        numClues -= tRemoved;
+        recordClues(numClues);
+      } else {
+        rollback(removeMark);
+        restoreClues(pos, pair, pairGiven);
+      }
+      release(removeMark);
+    }
+    if ((removalMode == REMOVE_RANDOM) && keepSolverState) {
+      for (int i = 0; i < 81; i++) {
+        if (!givens[i]) {
+          board[i].setExact(511);
         }
-      } while (doCreate && (signature() == Point.SINGLE));
-      staticLoadClear(oldGame);
-      this.staticSave(newGame);
+      }
     }
+    release(puzzleMark);
     System.out.println("Made " + ia + " attempts in "
         + (System.currentTimeMillis() - inTime) + "ms");
     if (!doCreate) {
@@ -288,6 +561,256 @@ public class Board {
     hasStopped = true;
   }
 
+  /**
+   * Sets the strategy that makeProblem uses to choose which clues to remove.
+   * The backtracking strategy first removes clues in the same order as
+   * REMOVE_ORDERED, then searches again allowing 1, 2, ... (up to a limit)
+   * departures from that order, keeping the puzzle with the fewest clues. It
+   * continues until the search is finished or the time limit is reached.
+   *
+   * @param tMode
+   *           REMOVE_RANDOM, REMOVE_ORDERED or REMOVE_BACKTRACK
+   * @param tDiscrepancies
+   *           largest number of departures from the ordering to search
+   */
+  public void setRemovalMode(int tMode, int tDiscrepancies) {
+    this.removalMode = tMode;
+    this.maxDiscrepancy = Math.max(0, tDiscrepancies);
+  }
+
+  /**
+   * Sets whether makeProblem keeps the solver state of the puzzle between
+   * clue removals. When it does, the candidates removed by the clues are kept
+   * on the board while clues are removed, and removing a clue only recomputes
+   * the candidates of that clue and its peers. Otherwise, the removed clue is
+   * cleared and the logic starts again from the bare clues. Both give the
+   * same puzzles.
+   *
+   * @param tKeep
+   *           true if the solver state should be kept
+   */
+  public void setIncrementalRemoval(boolean tKeep) {
+    this.keepSolverState = tKeep;
+  }
+
+  /**
+   * Retrieves the time taken by the most recent makeProblem to first reach a
+   * puzzle with a given number of clues. This can be used to compare the
+   * removal strategies.
+   *
+   * @param tClues
+   *           number of clues
+   * @return time in milliseconds, or -1 if no puzzle with that number of
+   *         clues was reached
+   */
+  public int getClueTime(int tClues) {
+    return clueTimes[tClues];
+  }
+
+  private boolean createTimeUp() {
+    return ((System.currentTimeMillis() - createStart) >= createLimit);
+  }
+
+  /**
+   * Records the time taken to reach a number of clues, if it is the first
+   * time that number has been reached.
+   */
+  private void recordClues(int tClues) {
+    if (clueTimes[tClues] < 0) {
+      clueTimes[tClues] = (int) (System.currentTimeMillis() - createStart);
+    }
+  }
+
+  /**
+   * Removes the candidates of every clue from the peers of that clue. This is
+   * the solver state that makeProblem keeps between clue removals.
+   */
+  private void removeGivenPeers() {
+    for (int i = 0; i < 81; i++) {
+      if (givens[i]) {
+        int[] peers = Grid.PEERS[i];
+        for (int j = 0; j < 20; j++) {
+          if (!givens[peers[j]]) {
+            board[peers[j]].setBits(~grid.cells[i]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies the clues of the puzzle being reduced into an array, with all
+   * other cells blank, in the same format as staticSave(int[]).
+   */
+  private void saveGivens(int[] result) {
+    for (int i = 0; i < 81; i++) {
+      result[i] = givens[i] ? grid.cells[i] : 511;
+    }
+  }
+
+  /**
+   * Checks whether a cell has a clue with a given (bit-packed) number among
+   * its peers.
+   */
+  private boolean givenPeer(int pos, int tBit) {
+    int[] peers = Grid.PEERS[pos];
+    for (int j = 0; j < 20; j++) {
+      if (givens[peers[j]] && (grid.cells[peers[j]] == tBit)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Clears a clue. If the solver state is being kept, the candidates of the
+   * cell are worked out from the clues among its peers, and the number of
+   * the clue is put back into any of its peers that don't have another clue
+   * with that number. Nothing else on the board needs to change.
+   */
+  private void removeClue(int pos) {
+    if (!givens[pos]) {
+      return;
+    }
+    int tBit = grid.cells[pos];
+    givens[pos] = false;
+    board[pos].clearValue();
+    if (keepSolverState) {
+      int tVal = 511;
+      int[] peers = Grid.PEERS[pos];
+      for (int j = 0; j < 20; j++) {
+        int p = peers[j];
+        if (givens[p]) {
+          tVal &= ~grid.cells[p];
+        } else if (((grid.cells[p] & tBit) == 0) && !givenPeer(p, tBit)) {
+          board[p].setExact(grid.cells[p] | tBit);
+        }
+      }
+      board[pos].setBits(tVal);
+    }
+  }
+
+  /**
+   * Clears a clue (and its symmetrical partner, if pair is not -1), then
+   * checks whether the puzzle can still be solved by logic. The logic is
+   * rolled back before returning, but the removal is left for the caller to
+   * keep or roll back; on rolling back, the caller also needs to restore the
+   * clues with restoreClues.
+   *
+   * @return true if the puzzle can still be solved
+   */
+  private boolean tryRemoval(int pos, int pair) {
+    this.clearChanged();
+    removeClue(pos);
+    if (pair >= 0) {
+      removeClue(pair);
+    }
+    int logicMark = mark();
+    applyLogic(LOGIC_MAX, report);
+    boolean solvable = (signature() == Point.SINGLE);
+    rollback(logicMark);
+    release(logicMark);
+    return solvable;
+  }
+
+  /**
+   * Marks a clue (and its partner, if it was a clue) as given again, after a
+   * removal has been rolled back.
+   */
+  private void restoreClues(int pos, int pair, boolean pairGiven) {
+    givens[pos] = true;
+    if (pair >= 0) {
+      givens[pair] = pairGiven;
+    }
+  }
+
+  /**
+   * Chooses the next clue to try removing: the one with the most clues among
+   * its peers, as removing it leaves the most information nearby. Ties are
+   * broken at random.
+   *
+   * @return cell index, or -1 if there are no clues left to try
+   */
+  private int chooseRemoval(boolean[] pCands) {
+    int best = -1;
+    int bestPeers = -1;
+    int numTied = 0;
+    for (int i = 0; i < 81; i++) {
+      if (pCands[i]) {
+        int tPeers = 0;
+        int[] peers = Grid.PEERS[i];
+        for (int j = 0; j < 20; j++) {
+          if (givens[peers[j]]) {
+            tPeers++;
+          }
+        }
+        if (tPeers > bestPeers) {
+          best = i;
+          bestPeers = tPeers;
+          numTied = 1;
+        } else if ((tPeers == bestPeers) && (rGen.nextInt(++numTied) == 0)) {
+          best = i;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Limited discrepancy search over clue removals. At each step, the clue
+   * chosen by chooseRemoval is removed if the puzzle remains solvable; while
+   * discrepancies remain, the branch where that clue is kept anyway is
+   * searched afterwards. A clue that can't be removed can't be removed from
+   * any puzzle with fewer clues, so that case is not a discrepancy. The
+   * puzzle with the fewest clues found so far is kept in bestGame.
+   */
+  private void searchRemovals(int discrepancies, boolean[] pCands,
+                              boolean useSymmetry, GlobalVar ta, GlobalVar tt) {
+    if (!doCreate || createTimeUp()) {
+      return;
+    }
+    int pos = chooseRemoval(pCands);
+    if (pos < 0) {
+      return;
+    }
+    int pair = (useSymmetry && (pos != 40)) ? (80 - pos) : -1;
+    int tRemoved = ((pair >= 0) && givens[pair]) ? 2 : 1;
+    boolean pairCand = (pair >= 0) && pCands[pair];
+    boolean pairGiven = (pair >= 0) && givens[pair];
+    pCands[pos] = false;
+    if (pair >= 0) {
+      pCands[pair] = false;
+    }
+    numAttempts += tRemoved;
+    ta.setValue(numAttempts);
+    tt.setValue((int) (System.currentTimeMillis() - createStart));
+    int removeMark = mark();
+    if (tryRemoval(pos, pair)) {
+      numClues -= tRemoved;
+      recordClues(numClues);
+      if (numClues < bestClues) {
+        bestClues = numClues;
+        saveGivens(bestGame);
+      }
+      searchRemovals(discrepancies, pCands, useSymmetry, ta, tt);
+      numClues += tRemoved;
+      rollback(removeMark);
+      restoreClues(pos, pair, pairGiven);
+      if (discrepancies > 0) {
+        searchRemovals(discrepancies - 1, pCands, useSymmetry, ta, tt);
+      }
+    } else {
+      rollback(removeMark);
+      restoreClues(pos, pair, pairGiven);
+      searchRemovals(discrepancies, pCands, useSymmetry, ta, tt);
+    }
+    release(removeMark);
+    pCands[pos] = true;
+    if (pair >= 0) {
+      pCands[pair] = pairCand;
+    }
+  }
+
   /**
    * Gets the Point at a specific location in the board. The current
    * implementation retrieves the point indirectly by calling the getPoint
@@ -317,8 +840,10 @@ public class Board {
    * @see Point#getLocked()
    */
   public void clear(int tx, int ty) {
-    if (!columns[tx].getPoint(ty).getLocked())
+    if (!columns[tx].getPoint(ty).getLocked()) {
       columns[tx].getPoint(ty).clearValue();
+      journalMove(MoveJournal.CLEAR, tx, ty, 0);
+    }
   }
 
   /**
@@ -352,8 +877,10 @@ public class Board {
    * @see Point#getLocked()
    */
   public void set(int tVal, int tx, int ty) {
-    if (!columns[tx].getPoint(ty).getLocked())
+    if (!columns[tx].getPoint(ty).getLocked()) {
       columns[tx].getPoint(ty).setValue(tVal);
+      journalMove(MoveJournal.SET, tx, ty, tVal);
+    }
   }
 
   /**
@@ -372,8 +899,10 @@ public class Board {
    * @see Point#getLocked()
    */
   public void remove(int tVal, int tx, int ty) {
-    if (!columns[tx].getPoint(ty).getLocked())
+    if (!columns[tx].getPoint(ty).getLocked()) {
       columns[tx].getPoint(ty).remValue(tVal);
+      journalMove(MoveJournal.REMOVE, tx, ty, tVal);
+    }
   }
 
   /**
@@ -405,6 +934,7 @@ public class Board {
       if(p.countBits() == 0){
         p.clearValue();
       }
+      journalMove(MoveJournal.FLIP, tx, ty, tVal);
     }
   }
 
@@ -413,7 +943,9 @@ public class Board {
    * to a certain level. The sweep will continue to try different techniques
    * until no part of the board changes from one iteration to the next. If
    * Points are specified (i.e. non-null), then the logic application will
-   * stop if one of the Points has a Point.SINGLE signature.
+   * stop if one of the Points has a Point.SINGLE signature. Unless
+   * setQueuedLogic(false) has been called, the logic is applied by a
+   * Propagator, which only revisits the parts of the board that change.
    *
    * @param logLevel
    *            Maximum logic level to use for logical deductions
@@ -422,13 +954,98 @@ public class Board {
    * @return Analysis string, indicating the difficulty of the puzzle
    */
   public String applyLogic(int logLevel, boolean analyse) {
-    String retVal = "";
-    int[] opCounts = new int[Board.LOGIC_LIMIT];
-    boolean changed;
-    boolean[] singlePoints = new boolean[81];
-    for (int i = 0; i < logLevel; i++) {
-      opCounts[i] = 0;
+    applyLogic(logLevel, report);
+    return analyse ? report.toString() : "";
+  }
+
+  /**
+   * Attempts to solve the current puzzle, using a series of logical steps up
+   * to a certain level, recording the results in a report. No objects are
+   * created, so this is the method to use when logic is applied many times
+   * (e.g. while generating puzzles).
+   *
+   * @param logLevel
+   *            Maximum logic level to use for logical deductions
+   * @param tReport
+   *            report to fill with the results of the logic
+   * @see SolveReport
+   */
+  public void applyLogic(int logLevel, SolveReport tReport) {
+    tReport.reset(logLevel);
+    if (queuedLogic) {
+      propagator.markAll();
+      propagator.run(logLevel, tReport.opCounts);
+      this.setChanged();
+    } else {
+      sweepLogic(logLevel, tReport.opCounts);
+    }
+    tReport.finish(signature());
+    if (logLevel > 0) {
+      // the result is recorded, rather than the logic used to reach it
+      journalBoard();
     }
+  }
+
+  /**
+   * Attempts to solve the puzzle up to the maximum permissible logic level,
+   * recording the results in a report.
+   *
+   * @param tReport
+   *            report to fill with the results of the logic
+   */
+  public void applyLogic(SolveReport tReport) {
+    applyLogic(LOGIC_MAX, tReport);
+  }
+
+  /**
+   * Attempts to solve the current puzzle, using a series of logical steps up
+   * to a certain level. The sweep will continue to try different techniques
+   * until no part of the board changes from one iteration to the next.
+   *
+   * @param logLevel
+   *            Maximum logic level to use for logical deductions
+   * @return Analysis string, indicating the difficulty of the puzzle
+   */
+  public String applyLogic(int logLevel) {
+    return applyLogic(logLevel, true);
+  }
+
+  /**
+   * Attempts to solve the puzzle up to the maximum permissible logic level.
+   * Due to limitations in processing speed, this may not be the same as the
+   * highest logic level understood by the application.
+   */
+  public String applyLogic() {
+    return applyLogic(LOGIC_MAX);
+  }
+
+  /**
+   * Selects the logic engine used by applyLogic. The queued engine only
+   * re-examines the cells and units affected by each change, while the
+   * sweep engine re-scans the whole board (starting from the simplest
+   * logic) after every change. Both reach the same grid with logic levels 1
+   * and 2; above that, they can stop at different grids on a board with more
+   * than one solution.
+   *
+   * @param tQueued
+   *            true to use the queued (event-driven) engine
+   * @see Propagator
+   */
+  public void setQueuedLogic(boolean tQueued) {
+    this.queuedLogic = tQueued;
+  }
+
+  /**
+   * Applies logic by sweeping the whole board, starting again from the
+   * simplest logic level whenever something changes.
+   *
+   * @param logLevel
+   *            Maximum logic level to use for logical deductions
+   * @param opCounts
+   *            Number of successful deductions made at each level
+   */
+  private void sweepLogic(int logLevel, int[] opCounts) {
+    boolean changed;
     do {
       changed = false;
       if (logLevel >= 1) {
@@ -526,48 +1143,68 @@ public class Board {
           }
         }
       }
-    } while (changed);
-    if(analyse){
-      for (int i = 0; i < logLevel; i++) {
-        retVal = retVal + "("+(i+1)+","+opCounts[i]+")";
-      }
-      retVal = retVal + "\n\nDifficulty: ";
-      if(opCounts[4] != 0){
-        retVal = retVal + "tough";
-      }
-      else if(opCounts[3] != 0){
-        retVal = retVal + "hard";
-      }
-      else if((opCounts[2] != 0) || (opCounts[1] != 0)){
-        retVal = retVal + "moderate";
-      }
-      else {
-        retVal = retVal + "gentle";
+      if (!changed && (logLevel >= 6)) {
+        // fish work on whole numbers rather than lines, so use the grid
+        for (int num = 0; num < 9; num++) {
+          if (fish.apply(propagator, num)) {
+            opCounts[5]++;
+            changed = true;
+          }
+        }
+        propagator.clear();
+        if (changed) {
+          this.setChanged();
+        }
       }
-    }
-    return retVal;
+    } while (changed);
   }
 
   /**
-   * Attempts to solve the current puzzle, using a series of logical steps up
-   * to a certain level. The sweep will continue to try different techniques
-   * until no part of the board changes from one iteration to the next.
+   * Counts the number of solutions of the current board using an exact cover
+   * search, stopping once a given number of solutions has been found. This
+   * always gives a definite answer, so it can be used where applyLogic stops
+   * with a Point.MULTIPLE signature. The board itself is not modified.
    *
-   * @param logLevel
-   *            Maximum logic level to use for logical deductions
-   * @return Analysis string, indicating the difficulty of the puzzle
+   * @param limit
+   *            maximum number of solutions to search for (2 is enough to
+   *            check for a unique solution)
+   * @return the number of solutions found, no more than limit
+   * @see DancingLinks
    */
-  public String applyLogic(int logLevel) {
-    return applyLogic(logLevel, true);
+  public int countSolutions(int limit) {
+    if (exactSolver == null) {
+      exactSolver = new DancingLinks();
+    }
+    return exactSolver.solve(grid.cells, limit);
   }
 
   /**
-   * Attempts to solve the puzzle up to the maximum permissible logic level.
-   * Due to limitations in processing speed, this may not be the same as the
-   * highest logic level understood by the application.
+   * Solves the current board completely, using a depth-first search on the
+   * candidate masks rather than the logic sweeps of applyLogic. If any
+   * solution is found, the first one is placed on the board (locked
+   * locations are unaffected, as they are already consistent with every
+   * solution).
+   *
+   * @param limit
+   *            maximum number of solutions to count
+   * @return the number of solutions found, no more than limit
+   * @see MaskSolver
    */
-  public String applyLogic() {
-    return applyLogic(LOGIC_MAX);
+  public int solveCompletely(int limit) {
+    if (fastSolver == null) {
+      fastSolver = new MaskSolver();
+    }
+    int numSolutions = fastSolver.solve(grid.cells, limit);
+    if (numSolutions > 0) {
+      int[] tSolution = new int[81];
+      fastSolver.getSolution(tSolution);
+      for (int i = 0; i < 81; i++) {
+        if (board[i].getValue() != tSolution[i]) {
+          board[i].setExact(tSolution[i]);
+        }
+      }
+    }
+    return numSolutions;
   }
 
   /**
@@ -579,6 +1216,14 @@ public class Board {
    *           True if locked locations should not be cleared
    */
   public void reset(boolean noLocked) {
+    clearPoints(noLocked);
+    journalMove(MoveJournal.RESET, 0, 0, noLocked ? 1 : 0);
+  }
+
+  /**
+   * Clears the board without recording a move, before loading a new board.
+   */
+  private void clearPoints(boolean noLocked) {
     for (int i = 0; i < 81; i++) {
       if (!(noLocked && board[i].getLocked()))
         board[i].clearValue();
@@ -598,11 +1243,12 @@ public class Board {
     if (tBoard.length != 81) {
       System.out.println("Loaded board is an incorrect size");
     } else {
-      reset(false);
+      clearPoints(false);
       System.out.println("Loading the board");
       for (int i = 0; i < 81; i++) {
         board[i].setExact(tBoard[i]);
       }
+      journalBoard();
     }
   }
 
@@ -616,10 +1262,11 @@ public class Board {
     if (tBoard.length != 81) {
       System.out.println("Loaded board is an incorrect size");
     } else {
-      reset(false);
+      clearPoints(false);
       for (int i = 0; i < 81; i++) {
         board[i].setBits(tBoard[i]);
       }
+      journalBoard();
     }
   }
 
@@ -638,6 +1285,7 @@ public class Board {
     for (int i = 0; i < 81; i++) {
       board[i].setLocked((tFlags[i] & 1) == 0);
     }
+    journalBoard();
   }
 
   /**
@@ -666,9 +1314,7 @@ public class Board {
    *           array that board will be saved to
    */
   public void staticSave(int[] result) {
-    for (int i = 0; i < 81; i++) {
-      result[i] = this.board[i].getValue();
-    }
+    grid.save(result);
   }
 
   /**
@@ -699,13 +1345,48 @@ public class Board {
     if (tBoard.length != 81 * 3) {
       System.out.println("Loaded board is an incorrect size");
     } else {
-      reset(false);
       System.out.println("Loading the board");
-      for (int i = 0; i < 81; i++) {
-        board[i].setExact(((tBoard[i * 3    ] & 0xff) << 8)
-            | ((tBoard[i * 3 + 1] & 0xff)));
-        board[i].setLocked((tBoard[i * 3 + 2] & 1) == 0);
-      }
+      staticLoad(tBoard, 0);
+    }
+  }
+
+  /**
+   * Loads a board definition from part of an array of bytes, in the same
+   * format as staticLoad(byte[]), without reporting the load.
+   *
+   * @param tBoard
+   *            array containing board to be loaded
+   * @param offset
+   *            position of the first byte of the board in the array
+   */
+  void staticLoad(byte[] tBoard, int offset) {
+    clearPoints(false);
+    for (int i = 0; i < 81; i++) {
+      int tPos = offset + i * 3;
+      board[i].setExact(((tBoard[tPos] & 0xff) << 8)
+          | ((tBoard[tPos + 1] & 0xff)));
+      board[i].setLocked((tBoard[tPos + 2] & 1) == 0);
+    }
+    journalBoard();
+  }
+
+  /**
+   * Saves a board definition to part of an array of bytes, in the same format
+   * as staticSave(byte[]). All three bytes of each Point are written, so the
+   * array does not need to be cleared first.
+   *
+   * @param result
+   *            array that board will be saved to
+   * @param offset
+   *            position in the array for the first byte of the board
+   */
+  void staticSave(byte[] result, int offset) {
+    for (int i = 0; i < 81; i++) {
+      int tPos = offset + i * 3;
+      int tVal = this.board[i].getValue();
+      result[tPos] = (byte) ((tVal & 0xff00) >>> 8);
+      result[tPos + 1] = (byte) (tVal & 0x00ff);
+      result[tPos + 2] = (byte) (board[i].getLocked() ? 0 : 1);
     }
   }
 
@@ -731,6 +1412,7 @@ public class Board {
       if (board[i].signature() == Point.SINGLE)
         board[i].setLocked(true);
     }
+    journalMove(MoveJournal.LOCK, 0, 0, 0);
   }
 
   /**
@@ -742,6 +1424,7 @@ public class Board {
     for (int i = 0; i < 81; i++) {
       board[i].setLocked(false);
     }
+    journalMove(MoveJournal.UNLOCK, 0, 0, 0);
   }
   /**
    * Checks to see if a given number appears the maximum number of times on the
@@ -753,15 +1436,7 @@ public class Board {
    * @return true if the given number appears 9 times, false otherwise
    */
   public boolean numberComplete(int tNum) {
-    Point p = new Point();
-    p.setValue(tNum);
-    int numCount = 0;
-    for (int i = 0; i < 81; i++) {
-      if(board[i].equals(p)){
-        numCount++;
-      }
-    }
-    return (numCount == 9);
+    return (grid.countNumber(tNum) == 9);
   }
   /**
    * Sets the maximum attempted logic level to a given value. This is
@@ -802,7 +1477,7 @@ public class Board {
    * @param tBoard
    *           array containing board to be loaded
    */
-  private void staticLoadClear(int[] tBoard) {
+  void staticLoadClear(int[] tBoard) {
     if (tBoard.length != 81) {
       System.out.println("Loaded board is an incorrect size");
     } else {
@@ -830,7 +1505,7 @@ public class Board {
     }
     int numCands = 0;
     for (int i = 0; i < 81; i++) {
-      result[i] = (board[i].signature() == Point.SINGLE);
+      result[i] = (Point.signature(grid.cells[i]) == Point.SINGLE);
       if (result[i])
         numCands++;
     }
@@ -853,8 +1528,8 @@ public class Board {
       return 0;
     }
     int numCands = 0;
-    for (int i = 1; i < 81; i++) {
-      if (board[i].signature() == tSig) {
+    for (int i = 0; i < 81; i++) {
+      if (Point.signature(grid.cells[i]) == tSig) {
         result[numCands++] = i;
       }
     }
@@ -881,8 +1556,8 @@ public class Board {
       return 0;
     }
     int numCands = 0;
-    for (int i = 1; i < 81; i++) {
-      if (mask[i] && (board[i].signature() == tSig)) {
+    for (int i = 0; i < 81; i++) {
+      if (mask[i] && (Point.signature(grid.cells[i]) == tSig)) {
         result[numCands++] = i;
       }
     }
@@ -896,10 +1571,6 @@ public class Board {
    * @return the number of Points that only have one possible candidate number
    */
   private int countComplete() {
-    int cCount = 0;
-    for (int i = 0; i < 81; i++) {
-      cCount += (board[i].signature() == Point.SINGLE) ? 1 : 0;
-    }
-    return cCount;
+    return grid.countComplete();
   }
 }
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Finds the canonical form of a puzzle: the smallest puzzle (reading the
+ * cells row by row, with blank cells as 0) that it can be turned into by
+ * relabelling the numbers, swapping rows within a band or columns within a
+ * stack, swapping bands or stacks, and transposing. Two puzzles are the same
+ * up to these symmetries exactly when their canonical forms are equal, so the
+ * canonical form (or its 64-bit hash) can be used to find duplicates.
+ * <p>
+ * Rather than trying every one of the 3,359,232 arrangements of rows and
+ * columns, the first row is chosen from those with the fewest leading clues,
+ * and only the column arrangements that give that first row are tried. The
+ * remaining rows are then added one at a time, only following the rows that
+ * give the smallest result so far, and abandoning an arrangement as soon as
+ * it is worse than the best one found. A cheap fingerprint, which depends
+ * only on the counts of clues in rows, bands and numbers, can be compared
+ * first to quickly show that two puzzles are different.
+ * </p>
+ * <p>
+ * The search keeps its working space in the object, so an object should
+ * only be used by one thread at a time.
+ * </p>
+ *
+ * @author gringer
+ * @see Board#staticSave(int[])
+ */
+public class CanonicalForm {
+  /** Column arrangements, as the source column for each result column */
+  private static final int[][] COL_PERMS = new int[1296][9];
+
+  static {
+    int[][] perm3 = GridFactory.PERM3;
+    for (int p = 0; p < 1296; p++) {
+      int[] tStacks = perm3[p / 216];
+      int tWithin = p % 216; // base 6 digits: one permutation per stack
+      for (int k = 0; k < 3; k++) {
+        int[] tCols = perm3[tWithin / 36];
+        tWithin = (tWithin % 36) * 6;
+        for (int j = 0; j < 3; j++) {
+          COL_PERMS[p][k * 3 + j] = tStacks[k] * 3 + tCols[j];
+        }
+      }
+    }
+  }
+
+  /*
+   * Arrangements of the columns in a stack (indexes into PERM3) that move
+   * the clues to the end, for each bit-packed set of clue columns
+   */
+  private static final int[][] WITHIN = new int[8][];
+
+  static {
+    int[][] perm3 = GridFactory.PERM3;
+    for (int m = 0; m < 8; m++) {
+      int[] tPerms = new int[6];
+      int numPerms = 0;
+      for (int w = 0; w < 6; w++) {
+        int tPattern = 0;
+        for (int j = 0; j < 3; j++) {
+          tPattern = (tPattern << 1) | ((m >> perm3[w][j]) & 1);
+        }
+        if (tPattern == ((1 << Point.bitCounts[m]) - 1)) {
+          tPerms[numPerms++] = w;
+        }
+      }
+      WITHIN[m] = new int[numPerms];
+      System.arraycopy(tPerms, 0, WITHIN[m], 0, numPerms);
+    }
+  }
+
+  /* the puzzle (numbers 1-9, 0 for blank), and its transpose */
+  private final int[][] grids = new int[2][81];
+
+  private final int[] best = new int[81];
+
+  private final int[] current = new int[81];
+
+  /* number relabelling at each depth of the search, and the next label */
+  private final int[][] labels = new int[10][10];
+
+  private final int[] nextLabel = new int[10];
+
+  /* rows that could go next at each depth, and their relabelled values */
+  private final int[][] candRows = new int[9][9];
+
+  private final int[][][] candVals = new int[9][9][9];
+
+  private final int[] rowSource = new int[9];
+
+  private final int[] tempLabels = new int[10];
+
+  private boolean haveBest;
+
+  private int numBest;
+
+  private int[] src;
+
+  private int[] colPerm;
+
+  /**
+   * Works out the canonical form of a puzzle.
+   *
+   * @param tBoard
+   *           array of 81 bit-packed values, as from Board.staticSave(int[]);
+   *           cells with a single candidate are taken as clues
+   * @param result
+   *           array that the canonical form will be saved to, in the same
+   *           format, with other cells set to all candidates (511)
+   */
+  public void canonicalize(int[] tBoard, int[] result) {
+    search(tBoard);
+    for (int i = 0; i < 81; i++) {
+      result[i] = (best[i] == 0) ? 511 : (1 << (best[i] - 1));
+    }
+  }
+
+  /**
+   * Works out a 64-bit hash of the canonical form of a puzzle. Puzzles that
+   * are the same up to symmetry have the same hash.
+   *
+   * @param tBoard
+   *           array of 81 bit-packed values, as from Board.staticSave(int[])
+   * @return hash of the canonical form
+   */
+  public long hash(int[] tBoard) {
+    search(tBoard);
+    long h = 0;
+    for (int i = 0; i < 81; i++) {
+      h = SplitMix64.mix64(h * 11 + best[i]);
+    }
+    return h;
+  }
+
+  /**
+   * Checks whether two puzzles are the same up to symmetry. The fingerprints
+   * are compared first, and the canonical forms only if those are equal.
+   *
+   * @param tBoard1
+   *           first puzzle, as from Board.staticSave(int[])
+   * @param tBoard2
+   *           second puzzle, as from Board.staticSave(int[])
+   * @return true if one puzzle can be turned into the other
+   */
+  public boolean equivalent(int[] tBoard1, int[] tBoard2) {
+    if (fingerprint(tBoard1) != fingerprint(tBoard2)) {
+      return false;
+    }
+    int[] tForm = new int[81];
+    search(tBoard1);
+    System.arraycopy(best, 0, tForm, 0, 81);
+    search(tBoard2);
+    for (int i = 0; i < 81; i++) {
+      if (tForm[i] != best[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Works out a fingerprint of a puzzle that does not change under any of
+   * the symmetries: the sorted clue counts of the rows in each band (and the
+   * columns in each stack), and the sorted counts of each number. Puzzles
+   * with different fingerprints can't be the same up to symmetry, but
+   * puzzles with the same fingerprint may still be different.
+   *
+   * @param tBoard
+   *           array of 81 bit-packed values, as from Board.staticSave(int[])
+   * @return the fingerprint
+   */
+  public static long fingerprint(int[] tBoard) {
+    int[] rowCounts = new int[9];
+    int[] colCounts = new int[9];
+    int[] numCounts = new int[9];
+    for (int i = 0; i < 81; i++) {
+      if (Point.signature(tBoard[i]) == Point.SINGLE) {
+        rowCounts[i / 9]++;
+        colCounts[i % 9]++;
+        numCounts[Integer.numberOfTrailingZeros(tBoard[i])]++;
+      }
+    }
+    long tRows = bandSignature(rowCounts);
+    long tCols = bandSignature(colCounts);
+    java.util.Arrays.sort(numCounts);
+    long tNums = 0;
+    for (int num = 0; num < 9; num++) {
+      tNums = (tNums << 4) | numCounts[num];
+    }
+    return SplitMix64.mix64(SplitMix64.mix64(Math.min(tRows, tCols))
+        ^ Math.max(tRows, tCols)) ^ tNums;
+  }
+
+  /**
+   * Packs the clue counts of the lines in each band, sorted within each band
+   * and then sorted by band.
+   */
+  private static long bandSignature(int[] tCounts) {
+    long[] tBands = new long[3];
+    for (int b = 0; b < 3; b++) {
+      int[] tLines = { tCounts[b * 3], tCounts[b * 3 + 1], tCounts[b * 3 + 2] };
+      java.util.Arrays.sort(tLines);
+      tBands[b] = (tLines[0] << 8) | (tLines[1] << 4) | tLines[2];
+    }
+    java.util.Arrays.sort(tBands);
+    return (tBands[0] << 24) | (tBands[1] << 12) | tBands[2];
+  }
+
+  /**
+   * Searches for the canonical form, leaving it in best.
+   */
+  private void search(int[] tBoard) {
+    for (int i = 0; i < 81; i++) {
+      int tVal = (Point.signature(tBoard[i]) == Point.SINGLE) ?
+          (Integer.numberOfTrailingZeros(tBoard[i]) + 1) : 0;
+      grids[0][i] = tVal;
+      grids[1][(i % 9) * 9 + i / 9] = tVal;
+    }
+    // the first row is the one with the smallest pattern of clues; a stack
+    // with fewer clues has a smaller pattern, so stacks go in order of clues
+    int minPattern = 512;
+    for (int t = 0; t < 2; t++) {
+      for (int r = 0; r < 9; r++) {
+        minPattern = Math.min(minPattern, rowPattern(grids[t], r));
+      }
+    }
+    haveBest = false;
+    for (int t = 0; t < 2; t++) {
+      src = grids[t];
+      for (int r = 0; r < 9; r++) {
+        if (rowPattern(src, r) == minPattern) {
+          searchColumns(r, minPattern);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tries each column arrangement that gives a row the smallest pattern of
+   * clues, with that row first.
+   */
+  private void searchColumns(int r, int tPattern) {
+    int[] stackMasks = new int[3];
+    for (int c = 0; c < 9; c++) {
+      if (src[r * 9 + c] != 0) {
+        stackMasks[c / 3] |= 1 << (c % 3);
+      }
+    }
+    int[][] perm3 = GridFactory.PERM3;
+    for (int s = 0; s < 6; s++) {
+      int[] tStacks = perm3[s];
+      boolean matches = true;
+      for (int k = 0; k < 3; k++) {
+        int tCount = Point.bitCounts[stackMasks[tStacks[k]]];
+        matches = matches && (((tPattern >> ((2 - k) * 3)) & 7)
+            == ((1 << tCount) - 1));
+      }
+      if (!matches) {
+        continue;
+      }
+      int[] tCols0 = WITHIN[stackMasks[tStacks[0]]];
+      int[] tCols1 = WITHIN[stackMasks[tStacks[1]]];
+      int[] tCols2 = WITHIN[stackMasks[tStacks[2]]];
+      for (int w0 = 0; w0 < tCols0.length; w0++) {
+        for (int w1 = 0; w1 < tCols1.length; w1++) {
+          for (int w2 = 0; w2 < tCols2.length; w2++) {
+            colPerm = COL_PERMS[s * 216 + tCols0[w0] * 36 + tCols1[w1] * 6
+                + tCols2[w2]];
+            // the first row always relabels to 1, 2, 3, ... in order
+            int[] tLabels = labels[1];
+            for (int num = 0; num < 10; num++) {
+              tLabels[num] = 0;
+            }
+            nextLabel[1] = 1;
+            for (int c = 0; c < 9; c++) {
+              int tVal = src[r * 9 + colPerm[c]];
+              if (tVal != 0) {
+                tLabels[tVal] = nextLabel[1]++;
+              }
+              current[c] = (tVal == 0) ? 0 : tLabels[tVal];
+            }
+            rowSource[0] = r;
+            extend(1, haveBest ? 1 : 0, 1 << r);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gives the smallest clue pattern (clues as 1 bits, first column as the
+   * highest bit) that a row can have after arranging the columns.
+   */
+  private static int rowPattern(int[] tGrid, int r) {
+    int[] tStacks = new int[3];
+    for (int c = 0; c < 9; c++) {
+      if (tGrid[r * 9 + c] != 0) {
+        tStacks[c / 3]++;
+      }
+    }
+    java.util.Arrays.sort(tStacks);
+    int tPattern = 0;
+    for (int k = 0; k < 3; k++) {
+      tPattern = (tPattern << 3) | ((1 << tStacks[k]) - 1);
+    }
+    return tPattern;
+  }
+
+  /**
+   * Adds the next row to the current arrangement, trying each of the rows
+   * that gives the smallest result. Rows are relabelled one cell at a time,
+   * and a row is dropped as soon as it is worse than the smallest row so
+   * far (or than the best arrangement, if the rows placed so far match it).
+   *
+   * @param depth
+   *           number of rows already placed
+   * @param agree
+   *           number of leading rows where current matches best
+   * @param usedRows
+   *           bit-packed set of source rows already placed
+   */
+  private void extend(int depth, int agree, int usedRows) {
+    if (depth == 9) {
+      if (!haveBest || (agree < 9)) {
+        System.arraycopy(current, 0, best, 0, 81);
+        haveBest = true;
+        numBest++;
+      }
+      return;
+    }
+    // a new band starts on every third row; otherwise stay in the same band
+    int tBand = ((depth % 3) == 0) ? -1 : (rowSource[depth - 1] / 3);
+    int[] tLabels = labels[depth];
+    int[] tRows = candRows[depth];
+    int[][] tVals = candVals[depth];
+    int[] bound = (haveBest && (agree == depth)) ? best : null;
+    int boundOffset = depth * 9;
+    int numCands = 0;
+    for (int r = 0; r < 9; r++) {
+      if (((usedRows & (1 << r)) != 0) || ((tBand >= 0) && ((r / 3) != tBand))
+          || ((tBand < 0) && ((usedRows & (7 << ((r / 3) * 3))) != 0))) {
+        continue;
+      }
+      int[] tRow = tVals[numCands];
+      System.arraycopy(tLabels, 0, tempLabels, 0, 10);
+      int tNext = nextLabel[depth];
+      int tCompare = (bound == null) ? -1 : 0;
+      int c = 0;
+      while (c < 9) {
+        int tVal = src[r * 9 + colPerm[c]];
+        if ((tVal != 0) && (tempLabels[tVal] == 0)) {
+          tempLabels[tVal] = tNext++;
+        }
+        tRow[c] = (tVal == 0) ? 0 : tempLabels[tVal];
+        if ((tCompare == 0) && (tRow[c] != bound[boundOffset + c])) {
+          if (tRow[c] > bound[boundOffset + c]) {
+            break;
+          }
+          tCompare = -1;
+        }
+        c++;
+      }
+      if (c < 9) {
+        continue;
+      }
+      if (tCompare < 0) {
+        bound = tRow;
+        boundOffset = 0;
+      }
+      tRows[numCands++] = r;
+    }
+    if (numCands == 0) {
+      return; // every arrangement from here is worse than the best
+    }
+    int childAgree = (bound == best) ? (depth + 1) : agree;
+    int numFound = numBest;
+    for (int k = 0; k < numCands; k++) {
+      int[] tMin = tVals[k];
+      if ((bound != best) && (compareRows(tMin, bound, 0) != 0)) {
+        continue;
+      }
+      if (numBest != numFound) {
+        // the best was replaced by an arrangement sharing these rows
+        numFound = numBest;
+        childAgree = depth + 1;
+      }
+      int r = tRows[k];
+      int[] tNextLabels = labels[depth + 1];
+      System.arraycopy(tLabels, 0, tNextLabels, 0, 10);
+      nextLabel[depth + 1] = nextLabel[depth];
+      for (int c = 0; c < 9; c++) {
+        int tVal = src[r * 9 + colPerm[c]];
+        current[depth * 9 + c] = tMin[c];
+        if ((tVal != 0) && (tNextLabels[tVal] == 0)) {
+          tNextLabels[tVal] = tMin[c];
+          nextLabel[depth + 1]++;
+        }
+      }
+      rowSource[depth] = r;
+      extend(depth + 1, childAgree, usedRows | (1 << r));
+    }
+  }
+
+  /**
+   * Compares a row with the row starting at an offset in another array.
+   */
+  private static int compareRows(int[] tRow, int[] tOther, int offset) {
+    for (int c = 0; c < 9; c++) {
+      if (tRow[c] != tOther[offset + c]) {
+        return (tRow[c] < tOther[offset + c]) ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+}
@@ -34,17 +34,20 @@ public class Commander implements Runnable {
    Painter gamePainter;
    Board gameBoard;
 
-   Point[] undoBoard = new Point[81];
+   UndoHistory undoHistory = new UndoHistory(UndoHistory.DEFAULT_CAPACITY); // changed cells of recent steps
    Point[] cutBoard = new Point[81];
-   Point[] tempBoard = new Point[81];
 
    Thread puzzler; // used for puzzle generation
+   PuzzleGenerator generator; // creates puzzles on all available processors
+   PuzzlePool puzzlePool; // ready-made puzzles, if available
+   RatingCache ratingCache = new RatingCache(RatingCache.DEFAULT_CAPACITY); // used by Analyse
 
    boolean expertMode; // place numbers with fewer key presses (box, cell, number)?
    boolean numMode; // draw 'current number' on top of cell (and place that number when clicked)?
    boolean hasWon; // has the user completed the current puzzle?
    boolean flipMode; // are the number positions flipped from the usual cellphone locations?
    boolean candMode; // should candidates be placed/flipped (instead of single numbers?
+   boolean puzzleCancelled; // has the puzzle being generated been cancelled?
 
    int posX, posY;
    int oldX, oldY;
@@ -54,6 +57,8 @@ public class Commander implements Runnable {
    int expertLevel;
    int autoLevel = 0;
 
+   SolveReport logicReport = new SolveReport(); // re-used for every logic application
+
    /**
     * Sets up the game system; sets fields to default values, and
     * establishes the width and height of the game field.
@@ -82,11 +87,9 @@ public class Commander implements Runnable {
       w = Math.min(gameController.getWidth(), gameController.getHeight());
       h = Math.min(gameController.getWidth(), gameController.getHeight());
       for (int i = 0; i < 81; i++) {
-         undoBoard[i] = new Point();
          cutBoard[i] = new Point();
-         tempBoard[i] = new Point();
       }
-      gameBoard.staticSave(undoBoard);
+      undoHistory.clear(gameBoard);
       gameBoard.staticSave(cutBoard);
    }
 
@@ -141,7 +144,8 @@ public class Commander implements Runnable {
     * <li> Lock &mdash; Lock all visible numbers so that they can't be changed</li>
     * <li> Unlock &mdash; Unlock the board, allowing all numbers to be changed</li>
     * <li> Reset &mdash; Clear the current board, ignoring locked Points</li>
-    * <li> Undo &mdash; Undo the last operation</li>
+    * <li> Undo &mdash; Undo the last operation (repeat to undo earlier ones)</li>
+    * <li> Redo &mdash; Redo the last undone operation</li>
     * </ul>
     * 
     * @param tCommand
@@ -151,87 +155,131 @@ public class Commander implements Runnable {
       if (tCommand.equals("Quit")) {
          gameController.quit();
       } else if (tCommand.equals("Load")) {
-         gameBoard.staticSave(undoBoard);
+         undoHistory.commit(gameBoard);
          gameController.loadBoard();
       } else if (tCommand.equals("Save")) {
          gameController.saveBoard();
       } else if (tCommand.equals("Solve")) {
-         gameBoard.staticSave(undoBoard);
-         gameBoard.applyLogic();
+         undoHistory.commit(gameBoard);
+         gameBoard.applyLogic(logicReport);
          doUpdate(true);
       } else if (tCommand.equals("MiniSolve")){
-         gameBoard.staticSave(undoBoard);
-         gameBoard.applyLogic(1);
+         undoHistory.commit(gameBoard);
+         gameBoard.applyLogic(1, logicReport);
          doUpdate(true);
       } else if (tCommand.equals("Cancel")) {
-         gameBoard.stopCreate();
-         doCommand("Undo");
-         gameBoard.staticSave(undoBoard);
+         synchronized (this) {
+            puzzleCancelled = true;
+         }
+         if (generator != null)
+            generator.cancel();
+         waitForPuzzler();
+         // only the changes made since Create are undone
+         if (undoHistory.commit(gameBoard) > 0) {
+            undoHistory.undo(gameBoard);
+            undoHistory.discardRedo();
+         }
+         doUpdate(true);
       } else if (tCommand.equals("Accept")) {
-         gameBoard.stopCreate();
-         gameBoard.staticSave(undoBoard);
+         if (generator != null)
+            generator.accept();
+         waitForPuzzler();
+         undoHistory.commit(gameBoard);
       } else if (tCommand.equals("Create")) {
-         gameBoard.staticSave(undoBoard);
-         puzzler = new Thread(this);
-         puzzler.start();
+         undoHistory.commit(gameBoard);
+         GeneratedPuzzle tPuzzle = (puzzlePool == null) ? null :
+            puzzlePool.take(SolveReport.GENTLE, SolveReport.FIENDISH);
+         if (tPuzzle != null) {
+            loadPuzzle(tPuzzle);
+         } else {
+            // made here, so that a Cancel before generation starts is kept
+            if (generator == null)
+               generator = new PuzzleGenerator();
+            generator.reset();
+            puzzleCancelled = false;
+            puzzler = new Thread(this);
+            puzzler.start();
+         }
       } else if (tCommand.equals("Expert")) {
          setExpert(!expertMode);
       } else if (tCommand.equals("Lock")) {
+         undoHistory.commit(gameBoard);
          gameBoard.lockBoard();
          doUpdate(true);
       } else if (tCommand.equals("Clear")) {
+         undoHistory.commit(gameBoard);
          gameBoard.clear(posX, posY);
          doUpdate(false);
       } else if (tCommand.equals("Check")) {
-         // NOTE: This hoses the cutBuffer
-         gameBoard.staticSave(cutBoard);
-         gameBoard.applyLogic();
+         int checkMark = gameBoard.mark();
+         gameBoard.applyLogic(logicReport);
+         int numSolutions = (gameBoard.signature() == Point.MULTIPLE) ?
+               gameBoard.countSolutions(2) : 1;
          if (gameBoard.signature() == Point.SINGLE)
             gameController.infoMsg("Solvable", "Puzzle is solvable.\n\n"
                   + "[solvable by the logic known to this program]");
-         else if (gameBoard.signature() == Point.MULTIPLE)
+         else if ((gameBoard.signature() == Point.MULTIPLE) &&
+               (numSolutions == 1))
             gameController
                   .infoMsg(
-                        "Unsure",
-                        "This program is unable to determine "
-                              + "whether or not the puzzle is solvable.\n\n"
-                              + "[no contradictions "
-                              + "reached, but not fully solvable by logic known to this "
+                        "Solvable",
+                        "Puzzle has a unique solution.\n\n"
+                              + "[not fully solvable by logic known to this "
                               + "program]");
-         else if (gameBoard.signature() == Point.BLANK)
+         else if ((gameBoard.signature() == Point.MULTIPLE) &&
+               (numSolutions > 1))
+            gameController
+                  .infoMsg(
+                        "Ambiguous",
+                        "Puzzle has more than one solution.\n\n"
+                              + "[no contradictions "
+                              + "reached, but the solution is not unique]");
+         else if ((gameBoard.signature() == Point.BLANK) ||
+               (numSolutions == 0))
             gameController
                   .infoMsg(
                         "Incorrect",
                         "Puzzle / solution is invalid.\n\n"
                               + "[a contradiction "
-                              + "is reached when applying logic known to this program]");
-         gameBoard.staticLoad(cutBoard);
+                              + "is reached when solving the puzzle]");
+         gameBoard.rollback(checkMark);
+         gameBoard.release(checkMark);
          doUpdate(true);
       } else if (tCommand.equals("Analyse") || tCommand.equals("Analyze")) {
-          // NOTE: This hoses the cutBuffer
-          gameBoard.staticSave(cutBoard);
-          String anStr = gameBoard.applyLogic();
-          int gameSig = gameBoard.signature();
+          ratingCache.rate(gameBoard, logicReport);
+          String anStr = logicReport.toString();
+          int gameSig = logicReport.getSignature();
           if (gameSig == Point.BLANK)
              gameController.infoMsg("Incorrect", "Puzzle/solution is invalid.\n\n" +
                      "(Further analysis would not make sense)");
           else if(gameSig == Point.MULTIPLE){
-              gameController.infoMsg("Unsure", "Puzzle is beyond the logic " +
-                    "of this program.\n\n" + anStr);
+              int numSolutions = gameBoard.countSolutions(2);
+              if(numSolutions == 0){
+                  gameController.infoMsg("Incorrect", "Puzzle/solution is invalid.\n\n" +
+                          "(no solution exists)");
+              }
+              else if(numSolutions == 1){
+                  gameController.infoMsg("Unique", "Puzzle is beyond the logic " +
+                          "of this program, but has a unique solution.\n\n" + anStr);
+              }
+              else{
+                  gameController.infoMsg("Ambiguous", "Puzzle has more than one " +
+                          "solution.\n\n" + anStr);
+              }
           }
           else if(gameSig == Point.SINGLE){
               gameController.infoMsg("Solvable", "Logic levels required for " +
                     "completion follow.\n\n" + anStr);
           }
-          gameBoard.staticLoad(cutBoard);
           doUpdate(true);
       } else if (tCommand.equals("Unlock")) {
+         undoHistory.commit(gameBoard);
          gameBoard.unlockBoard();
          doUpdate(true);
       } else if (tCommand.equals("Keyflip")) {
          flipMode = !flipMode;
       } else if (tCommand.equals("Reset")) {
-         gameBoard.staticSave(undoBoard);
+         undoHistory.commit(gameBoard);
          gameBoard.reset(true);
          hasWon = false;
          doUpdate(true);
@@ -240,12 +288,10 @@ public class Commander implements Runnable {
       } else if (tCommand.equals("Keys")) {
          gameController.keysMessage();
       } else if (tCommand.equals("Undo")) {
-         gameBoard.staticSave(tempBoard);
-         gameBoard.unlockBoard();
-         gameBoard.staticLoad(undoBoard);
-         for (int i = 0; i < 81; i++) {
-            undoBoard[i].setBits(tempBoard[i]);
-         }
+         undoHistory.undo(gameBoard);
+         doUpdate(true);
+      } else if (tCommand.equals("Redo")) {
+         undoHistory.redo(gameBoard);
          doUpdate(true);
       }
    }
@@ -257,7 +303,7 @@ public class Commander implements Runnable {
     * @param button Indicates the button that has been pressed
     */
    public void doButton(int button) {
-      gameBoard.staticSave(undoBoard);
+      undoHistory.commit(gameBoard);
       if (button == Controller.LEFT) {
          if (expertMode) {
             if (expertLevel == 2) {
@@ -333,7 +379,7 @@ public class Commander implements Runnable {
 //                    }
                     val = tNum - 1;
                     checkPos();
-                    gameBoard.staticSave(undoBoard);
+                    undoHistory.commit(gameBoard);
                     setVal();
                     checkWon();
                 }
@@ -373,7 +419,7 @@ public class Commander implements Runnable {
     * screen and clearing all the undo / save states in the program.
     */
    public void init() {
-      gameBoard.staticSave(undoBoard);
+      undoHistory.clear(gameBoard);
       gameBoard.staticSave(cutBoard);
       doUpdate(true);
    }
@@ -511,6 +557,20 @@ public class Commander implements Runnable {
       val = (val % 9 + 9) % 9;
    }
 
+   /**
+    * Waits (for up to two seconds) for the puzzle generation thread to finish.
+    */
+   private void waitForPuzzler() {
+      Thread tPuzzler = puzzler;
+      if ((tPuzzler != null) && (tPuzzler != Thread.currentThread())) {
+         try {
+            tPuzzler.join(2000);
+         } catch (InterruptedException e) {
+            System.err.println("Interrupted wait. How annoying!");
+         }
+      }
+   }
+
    /* (non-Javadoc)
     * @see java.lang.Runnable#run()
     */
@@ -522,7 +582,8 @@ public class Commander implements Runnable {
    /**
     * Attempt to create a new puzzle. This function sets up progress dialogs to
     * let the user know what is going on, and provides a way in which the puzzle
-    * generation can be cancelled.
+    * generation can be cancelled. Puzzles are made by a PuzzleGenerator, which
+    * tries on every processor at once and keeps the first puzzle made.
     */
    public void makePuzzle() {
       GlobalVar[] gv = new GlobalVar[2];
@@ -530,40 +591,67 @@ public class Commander implements Runnable {
       int[] limits = new int[2];
       gv[0] = new GlobalVar();
       gv[1] = new GlobalVar();
-      labels[0] = "Placements";
-      limits[0] = 81;
-      labels[1] = "Attempts";
-      limits[1] = 10;
-      int tries = 0;
-      gameController.makeProgress("Solution", labels, limits, gv,
-            Controller.OP_CANCEL);
-      gameBoard.unlockBoard();
-      gamePainter.startUpdate();
-      do {
-         gv[1].setValue(tries);
-         gameBoard.reset(false);
-         gameBoard.makeSolution(gv[0]);
-         tries++;
-      } while ((tries < 10) && (gameBoard.signature() == 0));
-      if(tries == 10){
-          System.out.println("Reached limit");
-      }
-      gamePainter.stopUpdate();
-      labels[0] = "Removals";
-      limits[0] = 81;
+      labels[0] = "Attempts";
+      limits[0] = 20;
       labels[1] = "Time";
       limits[1] = 100000;
       gameController.makeProgress("Puzzle", labels, limits, gv,
             Controller.OP_CANCEL | Controller.OP_ACCEPT);
       gamePainter.startUpdate();
-      gameBoard.makeProblem(100000, true, gv[0], gv[1]);
+      if (generator == null)
+         generator = new PuzzleGenerator();
+      GeneratedPuzzle tPuzzle = generator.generate(SolveReport.GENTLE,
+            SolveReport.FIENDISH, 100000, true, gv[0], gv[1]);
       gamePainter.stopUpdate();
+      gameController.recoverDisplay();
+      synchronized (this) {
+         // Cancel may have stopped waiting; it takes back a puzzle loaded
+         // before it, so nothing may be loaded after it
+         if (puzzleCancelled)
+            tPuzzle = null;
+         if (tPuzzle != null)
+            loadPuzzle(tPuzzle);
+      }
+      if (tPuzzle == null) {
+         // the board is left as it was
+         System.out.println("No puzzle was created");
+         doUpdate(true);
+      }
+   }
+
+   /**
+    * Places a newly created puzzle on the board, and locks its clues.
+    * 
+    * @param tPuzzle the puzzle to start playing
+    */
+   private void loadPuzzle(GeneratedPuzzle tPuzzle) {
+      gameBoard.unlockBoard();
+      gameBoard.staticLoad(tPuzzle.getCells());
       hasWon = false;
       gameBoard.lockBoard();
-      gameController.recoverDisplay();
       doUpdate(true);
    }
 
+   /**
+    * Sets the pool of ready-made puzzles that Create should take puzzles from.
+    * Puzzles are only generated while the user waits if the pool is empty.
+    * 
+    * @param tPool pool of puzzles (or null, to always generate puzzles)
+    */
+   public void setPuzzlePool(PuzzlePool tPool) {
+      puzzlePool = tPool;
+   }
+
+   /**
+    * Sets the cache of puzzle ratings that Analyse should use, replacing the
+    * cache that is created with the Commander (which is not saved).
+    * 
+    * @param tCache cache of puzzle ratings
+    */
+   public void setRatingCache(RatingCache tCache) {
+      ratingCache = tCache;
+   }
+
    /**
     * Updates (redraws) the current game board to reflect changes that have
     * happened since the board was last drawn.
@@ -612,7 +700,7 @@ public class Commander implements Runnable {
     */
    private void checkWon() {
       if ((gameBoard.signature() == Point.SINGLE) && !hasWon) {
-         gameBoard.applyLogic();
+         gameBoard.applyLogic(logicReport);
          doUpdate(true);
          if (gameBoard.signature() == Point.SINGLE) {
             gameController.infoMsg("You Won!", "Puzzle has been solved.");
@@ -633,7 +721,7 @@ public class Commander implements Runnable {
          gameBoard.set(val, posX, posY);
       else
          gameBoard.flip(val, posX, posY);
-      gameBoard.applyLogic(autoLevel);
+      gameBoard.applyLogic(autoLevel, logicReport);
       expertLevel = 0;
       doUpdate(gameBoard.flagErrors(posX, posY));
    }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Logic level 4: for each row and column crossing a box, numbers that are
+ * only found in the crossing part of the box are removed from the rest of
+ * that row or column. This is the flat equivalent of calling
+ * Line.complement from a box on each of its rows and columns.
+ *
+ * @author gringer
+ * @see Line#complement(Line)
+ */
+public class ComplementTechnique implements LogicTechnique {
+  public String getName() {
+    return "Complement";
+  }
+
+  public int getLevel() {
+    return 4;
+  }
+
+  public int getCost() {
+    return 40;
+  }
+
+  public int getScope() {
+    return LogicTechnique.SCOPE_BOX;
+  }
+
+  public boolean apply(Propagator tProp, int u) {
+    int[] box = Grid.UNITS[u];
+    int[] cells = tProp.getGrid().cells;
+    int b = u - 18;
+    boolean retVal = false;
+    for (int k = 0; (k < 6) && !tProp.hasContradiction(); k++) {
+      int line = (k < 3) ? (9 + (b % 3) * 3 + k) : ((b / 3) * 3 + (k - 3));
+      int inVal = 0;
+      int outVal = 0;
+      for (int j = 0; j < 9; j++) {
+        int pos = box[j];
+        if ((Grid.CELL_UNITS[pos][0] == line)
+            || (Grid.CELL_UNITS[pos][1] == line)) {
+          inVal |= cells[pos];
+        } else {
+          outVal |= cells[pos];
+        }
+      }
+      int tBits = inVal & ~outVal;
+      if (tBits != 0) {
+        int[] lineCells = Grid.UNITS[line];
+        for (int j = 0; (j < 9) && !tProp.hasContradiction(); j++) {
+          if (Grid.CELL_UNITS[lineCells[j]][2] != u) {
+            retVal = tProp.remove(lineCells[j], tBits) || retVal;
+          }
+        }
+      }
+    }
+    return retVal;
+  }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to a file of puzzles, one puzzle per line, without reading
+ * the file into memory. The file is memory-mapped (in segments, as a single
+ * mapping can't be larger than 2GB), and puzzles are decoded straight from
+ * the mapping into an int[81] in the same format as
+ * Board.staticLoad(int[]), with no Strings or other objects created for
+ * each puzzle. The line format is the same as for BatchSolver: the first 81
+ * characters of each line are the cells, with '1'-'9' for clues and '.' or
+ * '0' for blanks.
+ * <p>
+ * If every line is the same length, puzzles are found by multiplying the
+ * line number by that length (the stride), which needs no memory and no
+ * pass over the file. Otherwise, the file is scanned once to build an index
+ * of where each line starts. Cursors can be made over ranges of puzzles,
+ * and split() divides the file into ranges for several threads to work
+ * through at once.
+ * </p>
+ *
+ * @author gringer
+ * @see BatchSolver
+ * @see Board#staticLoad(int[])
+ */
+public class CorpusReader {
+  /* each mapped segment covers 2^SEGMENTBITS bytes of the file */
+  private static final int SEGMENTBITS = 30;
+
+  private static final long SEGMENTMASK = (1L << SEGMENTBITS) - 1;
+
+  /* only this many line starts are checked before trusting a fixed stride */
+  private static final int STRIDECHECKS = 1024;
+
+  /* cell value for each character, or 0 for characters that aren't cells */
+  private static final int[] DECODE = new int[256];
+
+  static {
+    for (int num = 0; num < 9; num++) {
+      DECODE['1' + num] = 1 << num;
+    }
+    DECODE['.'] = 511;
+    DECODE['0'] = 511;
+  }
+
+  private final RandomAccessFile file;
+
+  private final MappedByteBuffer[] segments;
+
+  private final long fileSize;
+
+  private final int stride;
+
+  private final long numPuzzles;
+
+  private long[] index;
+
+  /**
+   * Opens a puzzle file. If the lines appear to all be the same length, a
+   * fixed stride is used; otherwise the file is indexed.
+   *
+   * @param tFile
+   *           file to read
+   * @throws IOException
+   *            if the file can't be opened or mapped
+   */
+  public CorpusReader(File tFile) throws IOException {
+    this(tFile, -1);
+  }
+
+  /**
+   * Opens a puzzle file with a given line length.
+   *
+   * @param tFile
+   *           file to read
+   * @param tStride
+   *           length of each line (including the line ending), 0 to always
+   *           index the file, or -1 to work out whether lines are all the
+   *           same length
+   * @throws IOException
+   *            if the file can't be opened or mapped
+   */
+  public CorpusReader(File tFile, int tStride) throws IOException {
+    file = new RandomAccessFile(tFile, "r");
+    FileChannel tChannel = file.getChannel();
+    fileSize = tChannel.size();
+    int numSegments = (int) ((fileSize + SEGMENTMASK) >>> SEGMENTBITS);
+    segments = new MappedByteBuffer[numSegments];
+    for (int s = 0; s < numSegments; s++) {
+      long tStart = (long) s << SEGMENTBITS;
+      segments[s] = tChannel.map(FileChannel.MapMode.READ_ONLY, tStart,
+          Math.min(SEGMENTMASK + 1, fileSize - tStart));
+    }
+    if (tStride < 0) {
+      tStride = findStride();
+    }
+    stride = tStride;
+    if (stride > 0) {
+      numPuzzles = (fileSize + 1) / stride; // the last line may lack an ending
+    } else {
+      numPuzzles = buildIndex();
+    }
+  }
+
+  /**
+   * Works out whether the file appears to have lines of a single length.
+   *
+   * @return the line length, or 0 if lines have different lengths
+   */
+  private int findStride() {
+    long tLength = 0;
+    while ((tLength < fileSize) && (byteAt(tLength) != '\n')) {
+      tLength++;
+    }
+    tLength++;
+    if ((tLength <= 81) || (tLength > fileSize)
+        || (((fileSize % tLength) != 0)
+            && ((fileSize % tLength) != (tLength - 1)))) {
+      return 0;
+    }
+    long numLines = (fileSize + 1) / tLength;
+    long tStep = Math.max(1, numLines / STRIDECHECKS);
+    for (long n = 1; n < numLines; n += tStep) {
+      if (byteAt(n * tLength - 1) != '\n') {
+        return 0;
+      }
+    }
+    // the file should end with a line ending only if the last line is whole
+    if ((byteAt(fileSize - 1) == '\n') != ((fileSize % tLength) == 0)) {
+      return 0;
+    }
+    return (int) tLength;
+  }
+
+  /**
+   * Scans the file for line endings, recording where each line starts.
+   *
+   * @return the number of lines
+   */
+  private long buildIndex() {
+    index = new long[1024];
+    long numLines = 0;
+    long tStart = 0;
+    byte[] tChunk = new byte[65536];
+    for (int s = 0; s < segments.length; s++) {
+      ByteBuffer tSegment = segments[s].duplicate();
+      long tBase = (long) s << SEGMENTBITS;
+      tSegment.position(0);
+      while (tSegment.hasRemaining()) {
+        int tOffset = tSegment.position();
+        int tLength = Math.min(tChunk.length, tSegment.remaining());
+        tSegment.get(tChunk, 0, tLength); // bulk copies are much faster
+        for (int i = 0; i < tLength; i++) {
+          if (tChunk[i] == '\n') {
+            numLines = addLine(numLines, tStart);
+            tStart = tBase + tOffset + i + 1;
+          }
+        }
+      }
+    }
+    if (tStart < fileSize) {
+      numLines = addLine(numLines, tStart);
+    }
+    return numLines;
+  }
+
+  private long addLine(long numLines, long tStart) {
+    if (numLines == index.length) {
+      long[] tIndex = new long[index.length * 2];
+      System.arraycopy(index, 0, tIndex, 0, index.length);
+      index = tIndex;
+    }
+    index[(int) numLines] = tStart;
+    return numLines + 1;
+  }
+
+  private byte byteAt(long pos) {
+    return segments[(int) (pos >>> SEGMENTBITS)].get((int) (pos & SEGMENTMASK));
+  }
+
+  /**
+   * Retrieves the number of puzzles (lines) in the file.
+   *
+   * @return the number of puzzles
+   */
+  public long size() {
+    return numPuzzles;
+  }
+
+  /**
+   * Retrieves the line length used to find puzzles.
+   *
+   * @return the line length, or 0 if the file is indexed
+   */
+  public int getStride() {
+    return stride;
+  }
+
+  /**
+   * Decodes a puzzle into an array, in the same format as
+   * Board.staticLoad(int[]).
+   *
+   * @param tPuzzle
+   *           index of the puzzle (line number, starting at 0)
+   * @param result
+   *           array that the puzzle will be saved to
+   * @return false if the line is not a puzzle
+   */
+  public boolean read(long tPuzzle, int[] result) {
+    if ((tPuzzle < 0) || (tPuzzle >= numPuzzles)) {
+      System.out.println("Puzzle index is out of range");
+      return false;
+    }
+    long tStart = (stride > 0) ? (tPuzzle * stride) : index[(int) tPuzzle];
+    if (tStart + 81 > fileSize) {
+      return false;
+    }
+    int s = (int) (tStart >>> SEGMENTBITS);
+    int pos = (int) (tStart & SEGMENTMASK);
+    ByteBuffer tSegment = segments[s];
+    for (int i = 0; i < 81; i++) {
+      if (pos == tSegment.limit()) {
+        tSegment = segments[++s]; // the line continues in the next segment
+        pos = 0;
+      }
+      int tVal = DECODE[tSegment.get(pos++) & 0xff];
+      if (tVal == 0) {
+        return false; // includes lines that end early
+      }
+      result[i] = tVal;
+    }
+    return true;
+  }
+
+  /**
+   * Makes a cursor that steps through a range of puzzles.
+   *
+   * @param tStart
+   *           index of the first puzzle
+   * @param tEnd
+   *           index after the last puzzle
+   * @return a cursor for that range
+   */
+  public Cursor range(long tStart, long tEnd) {
+    return new Cursor(Math.max(0, tStart), Math.min(numPuzzles, tEnd));
+  }
+
+  /**
+   * Divides the file into ranges of nearly equal size, one for each of a
+   * number of consumers.
+   *
+   * @param parts
+   *           number of ranges
+   * @return a cursor for each range, in file order
+   */
+  public Cursor[] split(int parts) {
+    parts = Math.max(1, parts);
+    Cursor[] tCursors = new Cursor[parts];
+    for (int p = 0; p < parts; p++) {
+      tCursors[p] = range(numPuzzles * p / parts, numPuzzles * (p + 1) / parts);
+    }
+    return tCursors;
+  }
+
+  /**
+   * Closes the file. Mapped segments are released once they are no longer
+   * used, so nothing should be read after closing.
+   *
+   * @throws IOException
+   *            if the file can't be closed
+   */
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /**
+   * Steps through a range of puzzles. Each cursor should only be used by one
+   * thread, but cursors over the same file can be used at the same time.
+   */
+  public class Cursor {
+    private final long start, end;
+
+    private long next;
+
+    private boolean readable;
+
+    Cursor(long tStart, long tEnd) {
+      start = tStart;
+      end = tEnd;
+      next = tStart;
+    }
+
+    /**
+     * Decodes the next puzzle in the range.
+     *
+     * @param result
+     *           array that the puzzle will be saved to
+     * @return false if there are no more puzzles in the range
+     * @see #lastReadable()
+     */
+    public boolean next(int[] result) {
+      if (next >= end) {
+        return false;
+      }
+      readable = read(next++, result);
+      return true;
+    }
+
+    /**
+     * Indicates whether the puzzle most recently given by next was a valid
+     * puzzle line.
+     *
+     * @return true if the line was a puzzle
+     */
+    public boolean lastReadable() {
+      return readable;
+    }
+
+    /**
+     * Retrieves the index of the puzzle most recently given by next.
+     *
+     * @return puzzle index
+     */
+    public long index() {
+      return next - 1;
+    }
+
+    /**
+     * Retrieves the index of the first puzzle in this range.
+     *
+     * @return puzzle index
+     */
+    public long getStart() {
+      return start;
+    }
+
+    /**
+     * Retrieves the index after the last puzzle in this range.
+     *
+     * @return puzzle index
+     */
+    public long getEnd() {
+      return end;
+    }
+  }
+}
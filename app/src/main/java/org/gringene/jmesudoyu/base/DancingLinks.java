@@ -0,0 +1,253 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Exact cover solver for sudoku boards, using Knuth's Algorithm X with
+ * "dancing links". Unlike the logic in Board.applyLogic, this will always
+ * give a definite answer about the number of solutions of a board, so it is
+ * used to resolve the cases where logic alone stops at Point.MULTIPLE.
+ * <p>
+ * The board is expressed as 324 constraint columns (cell filled, and each
+ * number once per row, column and box) with one matrix row for each
+ * candidate number at each cell. Only candidates that are present in the
+ * bit-packed cell values are added to the matrix, so pencil-marked boards
+ * are solved with the marks as additional constraints. All the link arrays
+ * are allocated once, so a single solver can be re-used for many boards.
+ * </p>
+ *
+ * @author gringer
+ * @see Board#countSolutions(int)
+ */
+public class DancingLinks {
+  private static final int COLUMNS = 324;
+
+  private static final int NODES = 1 + COLUMNS + 729 * 4;
+
+  private final int[] left = new int[NODES];
+
+  private final int[] right = new int[NODES];
+
+  private final int[] up = new int[NODES];
+
+  private final int[] down = new int[NODES];
+
+  private final int[] column = new int[NODES];
+
+  private final int[] option = new int[NODES]; // cell * 9 + number
+
+  private final int[] size = new int[COLUMNS + 1];
+
+  private final int[] chosen = new int[81];
+
+  private final int[] solution = new int[81];
+
+  private int numNodes;
+
+  private int numSolutions;
+
+  private int maxSolutions;
+
+  /**
+   * Counts the solutions of a board given as bit-packed candidate values (as
+   * produced by Board.staticSave(int[])), stopping once a given number of
+   * solutions have been found. A limit of 1 finds any solution, while a limit
+   * of 2 is enough to check for uniqueness.
+   *
+   * @param tBoard
+   *           array of 81 bit-packed candidate values
+   * @param limit
+   *           maximum number of solutions to search for
+   * @return the number of solutions found, no more than limit
+   */
+  public int solve(int[] tBoard, int limit) {
+    if (tBoard.length != 81) {
+      System.out.println("Solved board is an incorrect size");
+      return 0;
+    }
+    build(tBoard);
+    numSolutions = 0;
+    maxSolutions = Math.max(1, limit);
+    search(0);
+    return numSolutions;
+  }
+
+  /**
+   * Counts the solutions of the current state of a board, stopping once a
+   * given number of solutions have been found. The board is not modified.
+   *
+   * @param tBoard
+   *           Board to solve
+   * @param limit
+   *           maximum number of solutions to search for
+   * @return the number of solutions found, no more than limit
+   */
+  public int solve(Board tBoard, int limit) {
+    int[] tValues = new int[81];
+    tBoard.staticSave(tValues);
+    return solve(tValues, limit);
+  }
+
+  /**
+   * Copies the first solution found by the most recent solve into an array,
+   * using the same format as Board.staticSave(int[]).
+   *
+   * @param result
+   *           array that the solution will be saved to
+   * @return true if there was a solution to copy
+   */
+  public boolean getSolution(int[] result) {
+    if (numSolutions > 0) {
+      System.arraycopy(solution, 0, result, 0, 81);
+    }
+    return (numSolutions > 0);
+  }
+
+  /**
+   * Places the first solution found by the most recent solve onto a board.
+   *
+   * @param tBoard
+   *           Board to load the solution into
+   * @return true if there was a solution to load
+   * @see Board#staticLoad(int[])
+   */
+  public boolean loadSolution(Board tBoard) {
+    if (numSolutions > 0) {
+      tBoard.staticLoad(solution);
+    }
+    return (numSolutions > 0);
+  }
+
+  /**
+   * Sets up the links for the exact cover matrix of a board. Node 0 is the
+   * root, nodes 1..324 are the column headers.
+   */
+  private void build(int[] tBoard) {
+    for (int c = 0; c <= COLUMNS; c++) {
+      left[c] = (c == 0) ? COLUMNS : c - 1;
+      right[c] = (c == COLUMNS) ? 0 : c + 1;
+      up[c] = c;
+      down[c] = c;
+      column[c] = c;
+      size[c] = 0;
+    }
+    numNodes = COLUMNS + 1;
+    for (int pos = 0; pos < 81; pos++) {
+      int r = pos / 9;
+      int c = pos % 9;
+      int b = (r / 3) * 3 + c / 3;
+      for (int num = 0; num < 9; num++) {
+        if ((tBoard[pos] & (1 << num)) != 0) {
+          int first = numNodes;
+          addNode(1 + pos, first, pos * 9 + num);
+          addNode(1 + 81 + r * 9 + num, first, pos * 9 + num);
+          addNode(1 + 162 + c * 9 + num, first, pos * 9 + num);
+          addNode(1 + 243 + b * 9 + num, first, pos * 9 + num);
+        }
+      }
+    }
+  }
+
+  /**
+   * Appends a node to the bottom of a column, and to the end of the matrix
+   * row that starts at a given node.
+   */
+  private void addNode(int col, int first, int opt) {
+    int n = numNodes++;
+    column[n] = col;
+    option[n] = opt;
+    up[n] = up[col];
+    down[n] = col;
+    down[up[col]] = n;
+    up[col] = n;
+    size[col]++;
+    if (n == first) {
+      left[n] = n;
+      right[n] = n;
+    } else {
+      left[n] = left[first];
+      right[n] = first;
+      right[left[first]] = n;
+      left[first] = n;
+    }
+  }
+
+  private void cover(int col) {
+    right[left[col]] = right[col];
+    left[right[col]] = left[col];
+    for (int i = down[col]; i != col; i = down[i]) {
+      for (int j = right[i]; j != i; j = right[j]) {
+        down[up[j]] = down[j];
+        up[down[j]] = up[j];
+        size[column[j]]--;
+      }
+    }
+  }
+
+  private void uncover(int col) {
+    for (int i = up[col]; i != col; i = up[i]) {
+      for (int j = left[i]; j != i; j = left[j]) {
+        size[column[j]]++;
+        down[up[j]] = j;
+        up[down[j]] = j;
+      }
+    }
+    right[left[col]] = col;
+    left[right[col]] = col;
+  }
+
+  /**
+   * Recursive Algorithm X search, choosing the column with the fewest
+   * remaining options at each level. The recursion depth is at most 81.
+   */
+  private void search(int depth) {
+    if (right[0] == 0) {
+      if (numSolutions == 0) {
+        for (int i = 0; i < depth; i++) {
+          solution[option[chosen[i]] / 9] = 1 << (option[chosen[i]] % 9);
+        }
+      }
+      numSolutions++;
+      return;
+    }
+    int col = right[0];
+    for (int c = right[col]; c != 0; c = right[c]) {
+      if (size[c] < size[col]) {
+        col = c;
+      }
+    }
+    if (size[col] == 0) {
+      return;
+    }
+    cover(col);
+    for (int r = down[col]; (r != col) && (numSolutions < maxSolutions);
+         r = down[r]) {
+      chosen[depth] = r;
+      for (int j = right[r]; j != r; j = right[j]) {
+        cover(column[j]);
+      }
+      search(depth + 1);
+      for (int j = left[r]; j != r; j = left[j]) {
+        uncover(column[j]);
+      }
+    }
+    uncover(col);
+  }
+}
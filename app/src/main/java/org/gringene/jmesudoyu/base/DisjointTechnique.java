@@ -0,0 +1,77 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Logic level 3: if a set of n numbers (and nothing else) only occurs in n
+ * cells of a row, column or box, then remove those numbers from all other
+ * cells in that unit. This is the flat equivalent of Line.remDisjoint.
+ *
+ * @author gringer
+ * @see Line#remDisjoint()
+ */
+public class DisjointTechnique implements LogicTechnique {
+  private final int[] tempVals = new int[9];
+
+  public String getName() {
+    return "Disjoint";
+  }
+
+  public int getLevel() {
+    return 3;
+  }
+
+  public int getCost() {
+    return 30;
+  }
+
+  public int getScope() {
+    return LogicTechnique.SCOPE_UNIT;
+  }
+
+  public boolean apply(Propagator tProp, int u) {
+    int[] unit = Grid.UNITS[u];
+    int[] cells = tProp.getGrid().cells;
+    boolean retVal = false;
+    for (int j = 0; j < 9; j++) {
+      tempVals[j] = cells[unit[j]];
+    }
+    for (int pos = 0; (pos < 9) && !tProp.hasContradiction(); pos++) {
+      int pVal = tempVals[pos];
+      if (Point.countBits(pVal) > 1) {
+        int countEqual = 0;
+        for (int i = 0; i < 9; i++) {
+          if (tempVals[i] == pVal) {
+            countEqual++;
+          }
+        }
+        if ((countEqual > 1) && (countEqual < 9)
+            && (countEqual >= Point.countBits(pVal))) {
+          for (int i = 0; (i < 9) && !tProp.hasContradiction(); i++) {
+            if (tempVals[i] != pVal) {
+              retVal = tProp.remove(unit[i], pVal) || retVal;
+            }
+          }
+        }
+      }
+    }
+    return retVal;
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Logic level 6: basic fish (X-Wing, Swordfish and Jellyfish) for a single
+ * number. If the number can only go in the same n columns within n rows (the
+ * base lines), then those n columns (the cover lines) must hold the number in
+ * those rows, so it can be removed from the rest of the cover lines. The same
+ * applies with rows and columns swapped.
+ * <p>
+ * The candidates for the number are kept as a bitboard of 81 bits, stored as
+ * nine 9-bit row masks (bit c set in row r if the number is a candidate at
+ * (c, r)), along with the transposed column masks. Combinations of base
+ * lines are built up depth-first with the union of their masks kept as they
+ * are added, and a branch is abandoned as soon as the union covers more lines
+ * than the largest fish being looked for, so no cell-by-cell work is done
+ * until a fish has been found.
+ * </p>
+ *
+ * @author gringer
+ * @see SubsetFinder
+ */
+public class FishTechnique implements LogicTechnique {
+  /** Largest fish to look for (4 = Jellyfish) */
+  public static final int MAX_SIZE = 4;
+
+  private final int[] rowMasks = new int[9];
+
+  private final int[] colMasks = new int[9];
+
+  private final int[] lines = new int[9];
+
+  private final int[] stackItem = new int[MAX_SIZE + 1];
+
+  private final int[] stackUnion = new int[MAX_SIZE + 1];
+
+  private final int[] stackSet = new int[MAX_SIZE + 1];
+
+  public String getName() {
+    return "Fish";
+  }
+
+  public int getLevel() {
+    return 6;
+  }
+
+  public int getCost() {
+    return 60;
+  }
+
+  public int getScope() {
+    return LogicTechnique.SCOPE_DIGIT;
+  }
+
+  public boolean apply(Propagator tProp, int num) {
+    int[] cells = tProp.getGrid().cells;
+    int tBit = 1 << num;
+    boolean retVal = false;
+    makeMasks(cells, tBit);
+    retVal = search(tProp, tBit, rowMasks, true) || retVal;
+    if (!tProp.hasContradiction()) {
+      if (retVal) {
+        makeMasks(cells, tBit);
+      }
+      retVal = search(tProp, tBit, colMasks, false) || retVal;
+    }
+    return retVal;
+  }
+
+  /**
+   * Builds the row and column bitboards for a number.
+   */
+  private void makeMasks(int[] cells, int tBit) {
+    for (int i = 0; i < 9; i++) {
+      rowMasks[i] = 0;
+      colMasks[i] = 0;
+    }
+    for (int pos = 0; pos < 81; pos++) {
+      if ((cells[pos] & tBit) != 0) {
+        rowMasks[pos / 9] |= 1 << (pos % 9);
+        colMasks[pos % 9] |= 1 << (pos / 9);
+      }
+    }
+  }
+
+  /**
+   * Looks for fish with base lines taken from a set of line masks (rows if
+   * byRow is true, otherwise columns), and removes the number from the
+   * cover lines outside the base lines of any fish found.
+   *
+   * @return true if any candidates were removed
+   */
+  private boolean search(Propagator tProp, int tBit, int[] masks,
+                         boolean byRow) {
+    // only lines with 2..MAX_SIZE places for the number can be base lines
+    int numLines = 0;
+    for (int i = 0; i < 9; i++) {
+      int tCount = Point.bitCounts[masks[i]];
+      if ((tCount >= 2) && (tCount <= MAX_SIZE)) {
+        lines[numLines++] = i;
+      }
+    }
+    boolean retVal = false;
+    int depth = 0;
+    stackItem[0] = -1;
+    stackUnion[0] = 0;
+    stackSet[0] = 0;
+    while ((depth >= 0) && !tProp.hasContradiction()) {
+      int next = ++stackItem[depth];
+      if (next >= numLines) {
+        depth--;
+        continue;
+      }
+      int tUnion = stackUnion[depth] | masks[lines[next]];
+      int tSize = depth + 1;
+      if (Point.bitCounts[tUnion] > MAX_SIZE) {
+        continue; // adding more lines can only make the union larger
+      }
+      int tSet = stackSet[depth] | (1 << lines[next]);
+      if ((tSize >= 2) && (Point.bitCounts[tUnion] == tSize)) {
+        retVal = eliminate(tProp, tBit, masks, tSet, tUnion, byRow)
+            || retVal;
+      }
+      if (tSize < MAX_SIZE) {
+        depth++;
+        stackItem[depth] = next;
+        stackUnion[depth] = tUnion;
+        stackSet[depth] = tSet;
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Removes the number from the cover lines of a fish, except where they
+   * cross the base lines.
+   *
+   * @param tSet
+   *           bit-packed indexes of the base lines
+   * @param tUnion
+   *           bit-packed indexes of the cover lines
+   */
+  private boolean eliminate(Propagator tProp, int tBit, int[] masks,
+                            int tSet, int tUnion, boolean byRow) {
+    boolean retVal = false;
+    for (int i = 0; (i < 9) && !tProp.hasContradiction(); i++) {
+      int tRemove = masks[i] & tUnion;
+      if (((tSet & (1 << i)) == 0) && (tRemove != 0)) {
+        masks[i] &= ~tRemove;
+        for (int j = 0; j < 9; j++) {
+          if ((tRemove & (1 << j)) != 0) {
+            int pos = byRow ? (i * 9 + j) : (j * 9 + i);
+            retVal = tProp.remove(pos, tBit) || retVal;
+          }
+        }
+      }
+    }
+    return retVal;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * A puzzle produced by a PuzzleGenerator, along with its rating. The cells
+ * are in the same format as Board.staticSave(int[]), with the clues as
+ * single candidates and every other cell holding all candidates (511). The
+ * seed that the puzzle was made from is kept so that it can be made again.
+ *
+ * @author gringer
+ * @see PuzzleGenerator
+ */
+public class GeneratedPuzzle {
+  final int[] cells = new int[81];
+
+  int difficulty;
+
+  int numClues;
+
+  long seed;
+
+  /**
+   * Creates a puzzle from the clues on a board and the report from rating it.
+   *
+   * @param tCells
+   *           board cells, as saved by Board.staticSave(int[])
+   * @param tReport
+   *           report from applying logic to the puzzle
+   */
+  public GeneratedPuzzle(int[] tCells, SolveReport tReport) {
+    this(tCells, tReport.getDifficulty());
+  }
+
+  /**
+   * Creates a puzzle from the clues on a board and a known rating.
+   *
+   * @param tCells
+   *           board cells, as saved by Board.staticSave(int[])
+   * @param tDifficulty
+   *           difficulty rating, as used by SolveReport
+   */
+  public GeneratedPuzzle(int[] tCells, int tDifficulty) {
+    for (int i = 0; i < 81; i++) {
+      if (Point.signature(tCells[i]) == Point.SINGLE) {
+        cells[i] = tCells[i];
+        numClues++;
+      } else {
+        cells[i] = 511;
+      }
+    }
+    difficulty = tDifficulty;
+  }
+
+  /**
+   * Retrieves the cells of the puzzle. The array should not be modified.
+   *
+   * @return array of 81 bit-packed candidate values
+   * @see Board#staticLoad(int[])
+   */
+  public int[] getCells() {
+    return cells;
+  }
+
+  /**
+   * Retrieves the difficulty rating of the puzzle.
+   *
+   * @return difficulty rating, as used by SolveReport
+   * @see SolveReport#getDifficulty()
+   */
+  public int getDifficulty() {
+    return difficulty;
+  }
+
+  /**
+   * Retrieves the number of clues in the puzzle.
+   *
+   * @return number of cells with a given number
+   */
+  public int getNumClues() {
+    return numClues;
+  }
+
+  /**
+   * Retrieves the seed that the puzzle was made from.
+   *
+   * @return the random number seed
+   * @see PuzzleGenerator#makePuzzle(Board, long, int, boolean, GlobalVar,
+   *      GlobalVar)
+   */
+  public long getSeed() {
+    return seed;
+  }
+}
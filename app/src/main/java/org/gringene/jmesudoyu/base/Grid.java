@@ -0,0 +1,355 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Flat storage for the candidate numbers of a game board. Every cell is held
+ * as a bit-packed candidate mask (the same encoding used by Point) in a single
+ * integer array, indexed by (row * 9 + column). The unit and peer
+ * relationships that the Point/Line object graph expresses with references
+ * are instead held in static index tables, so that logic code can work on the
+ * board with plain array lookups. Counts of solved, blank and unsolved cells
+ * (and of each placed number) are kept up to date as cells change, so that
+ * queries about the state of the whole board do not need to scan it. Changes
+ * can also be recorded on a trail, so that the grid can be rolled back to an
+ * earlier state without copying every cell.
+ *
+ * @author gringer
+ * @see Point
+ * @see Board
+ */
+public class Grid {
+  /** Cells in each unit; rows are units 0-8, columns 9-17, boxes 18-26 */
+  public static final int[][] UNITS = new int[27][9];
+
+  /** Units (row, column, box) that each cell belongs to */
+  public static final int[][] CELL_UNITS = new int[81][3];
+
+  /** The 20 cells sharing a row, column or box with each cell */
+  public static final int[][] PEERS = new int[81][20];
+
+  /** Position of each cell within its row, column and box units */
+  public static final int[][] UNIT_POS = new int[81][3];
+
+  static {
+    for (int i = 0; i < 81; i++) {
+      int r = i / 9;
+      int c = i % 9;
+      int b = (r / 3) * 3 + c / 3;
+      int bp = (r % 3) * 3 + c % 3;
+      UNITS[r][c] = i;
+      UNITS[9 + c][r] = i;
+      UNITS[18 + b][bp] = i;
+      CELL_UNITS[i][0] = r;
+      CELL_UNITS[i][1] = 9 + c;
+      CELL_UNITS[i][2] = 18 + b;
+      UNIT_POS[i][0] = c;
+      UNIT_POS[i][1] = r;
+      UNIT_POS[i][2] = bp;
+    }
+    for (int i = 0; i < 81; i++) {
+      int numPeers = 0;
+      for (int j = 0; j < 81; j++) {
+        if ((j != i) && ((CELL_UNITS[i][0] == CELL_UNITS[j][0])
+            || (CELL_UNITS[i][1] == CELL_UNITS[j][1])
+            || (CELL_UNITS[i][2] == CELL_UNITS[j][2]))) {
+          PEERS[i][numPeers++] = j;
+        }
+      }
+    }
+  }
+
+  final int[] cells;
+
+  /* counts of cells by signature, kept up to date as cells change */
+  private int numBlank, numSingle, numMultiple;
+
+  /* number of single cells containing each number */
+  private final int[] numberCounts = new int[9];
+
+  /* trail of (cell, previous value) pairs, recorded while a mark is held */
+  private int[] trailPos = new int[256];
+
+  private int[] trailVal = new int[256];
+
+  private int trailSize;
+
+  private int numMarks;
+
+  /**
+   * Creates a grid where every number is a candidate at every cell.
+   */
+  public Grid() {
+    cells = new int[81];
+    for (int i = 0; i < 81; i++) {
+      cells[i] = 511;
+    }
+    numMultiple = 81;
+  }
+
+  /**
+   * Converts a board location into a cell index.
+   *
+   * @param tx
+   *           Location along the x-axis (column)
+   * @param ty
+   *           Location along the y-axis (row)
+   * @return index of the cell at (tx, ty)
+   */
+  public static int index(int tx, int ty) {
+    return ty * 9 + tx;
+  }
+
+  /**
+   * Retrieves the candidate mask at a given cell.
+   *
+   * @param pos
+   *           cell index
+   * @return bit-packed candidate numbers at that cell
+   */
+  public int get(int pos) {
+    return cells[pos];
+  }
+
+  /**
+   * Sets the candidate mask at a given cell. All writes to the grid (including
+   * those made through a Point view) should go through this method.
+   *
+   * @param pos
+   *           cell index
+   * @param tVal
+   *           bit-packed candidate numbers for that cell
+   */
+  public void put(int pos, int tVal) {
+    int old = cells[pos];
+    if (old != tVal) {
+      if (numMarks > 0) {
+        record(pos, old);
+      }
+      count(old, -1);
+      cells[pos] = tVal;
+      count(tVal, 1);
+    }
+  }
+
+  /**
+   * Adds a cell change to the trail, making the trail larger if necessary.
+   */
+  private void record(int pos, int old) {
+    if (trailSize == trailPos.length) {
+      int[] tPos = new int[trailSize * 2];
+      int[] tVal = new int[trailSize * 2];
+      System.arraycopy(trailPos, 0, tPos, 0, trailSize);
+      System.arraycopy(trailVal, 0, tVal, 0, trailSize);
+      trailPos = tPos;
+      trailVal = tVal;
+    }
+    trailPos[trailSize] = pos;
+    trailVal[trailSize] = old;
+    trailSize++;
+  }
+
+  /**
+   * Marks the current state of the grid, so that it can be restored later
+   * with rollback(int). While at least one mark is held, every change to a
+   * cell is recorded on a trail, so restoring the state only takes time in
+   * proportion to the number of changes made since the mark. Marks can be
+   * nested, and each mark should be released once it is no longer needed.
+   *
+   * @return the mark for the current state
+   * @see #rollback(int)
+   * @see #release(int)
+   */
+  public int mark() {
+    numMarks++;
+    return trailSize;
+  }
+
+  /**
+   * Restores the grid to the state it was in when a mark was made. The mark
+   * remains held, so the same state can be restored again after further
+   * changes.
+   *
+   * @param tMark
+   *           mark returned by mark()
+   */
+  public void rollback(int tMark) {
+    while (trailSize > tMark) {
+      trailSize--;
+      int pos = trailPos[trailSize];
+      int tVal = trailVal[trailSize];
+      count(cells[pos], -1);
+      cells[pos] = tVal;
+      count(tVal, 1);
+    }
+  }
+
+  /**
+   * Releases a mark, keeping any changes made since it was made. Once no
+   * marks are held, the trail is emptied and changes are no longer
+   * recorded.
+   *
+   * @param tMark
+   *           mark returned by mark()
+   */
+  public void release(int tMark) {
+    if (numMarks == 0) {
+      System.out.println("No marks to release");
+      return;
+    }
+    numMarks--;
+    if (numMarks == 0) {
+      trailSize = 0;
+    }
+  }
+
+  /**
+   * Indicates whether any marks are held, in which case changes to the grid
+   * are being recorded so that they can be rolled back.
+   *
+   * @return true if at least one mark is held
+   */
+  public boolean isMarked() {
+    return (numMarks > 0);
+  }
+
+  /**
+   * Adds or removes a cell value from the signature and number counts.
+   */
+  private void count(int tVal, int delta) {
+    int tBits = Point.countBits(tVal);
+    if (tBits == 0) {
+      numBlank += delta;
+    } else if (tBits == 1) {
+      numSingle += delta;
+      if (tVal < 512) {
+        numberCounts[Integer.numberOfTrailingZeros(tVal)] += delta;
+      }
+    } else {
+      numMultiple += delta;
+    }
+  }
+
+  /**
+   * Removes a set of candidates from a given cell.
+   *
+   * @param pos
+   *           cell index
+   * @param tBits
+   *           bit-packed candidate numbers to remove
+   * @return true if any candidates were removed
+   */
+  public boolean remBits(int pos, int tBits) {
+    int old = cells[pos];
+    if ((old & tBits) != 0) {
+      put(pos, old & ~tBits);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Indicates the completion state of the grid, using the same values as
+   * Board.signature().
+   *
+   * @return The signature of this grid
+   * @see Board#signature()
+   */
+  public int signature() {
+    if (numBlank > 0) {
+      return Point.BLANK;
+    } else if (numMultiple > 0) {
+      return Point.MULTIPLE;
+    }
+    return Point.SINGLE;
+  }
+
+  /**
+   * Counts the number of cells that have exactly one candidate number.
+   *
+   * @return the number of solved cells
+   */
+  public int countComplete() {
+    return numSingle;
+  }
+
+  /**
+   * Counts the number of cells that have no candidate numbers.
+   *
+   * @return the number of contradictory cells
+   */
+  public int countBlank() {
+    return numBlank;
+  }
+
+  /**
+   * Counts the number of cells that have more than one candidate number.
+   *
+   * @return the number of unsolved cells
+   */
+  public int countMultiple() {
+    return numMultiple;
+  }
+
+  /**
+   * Counts the number of cells where a given number is the only candidate.
+   *
+   * @param tNum
+   *           number to count (unpacked, 0-8)
+   * @return the number of cells solved with that number
+   */
+  public int countNumber(int tNum) {
+    return numberCounts[tNum];
+  }
+
+  /**
+   * Copies the candidate masks of this grid into an array, in the same format
+   * as Board.staticSave(int[]).
+   *
+   * @param result
+   *           array that the grid will be saved to
+   */
+  public void save(int[] result) {
+    System.arraycopy(cells, 0, result, 0, 81);
+  }
+
+  /**
+   * Replaces the candidate masks of this grid with those in an array, in the
+   * same format as Board.staticLoad(int[]).
+   *
+   * @param tBoard
+   *           array containing candidate masks to load
+   */
+  public void load(int[] tBoard) {
+    for (int i = 0; i < 81; i++) {
+      put(i, tBoard[i]);
+    }
+  }
+
+  /**
+   * Copies the candidate masks from another grid.
+   *
+   * @param tGrid
+   *           grid to copy from
+   */
+  public void load(Grid tGrid) {
+    load(tGrid.cells);
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Makes completed Sudoku grids by transforming a small pool of seed grids.
+ * Relabelling the numbers, swapping rows within a band (or columns within a
+ * stack), swapping whole bands (or stacks) and transposing all turn a valid
+ * grid into another valid grid, so a new grid can be made by choosing a seed
+ * grid and a random combination of these transformations. The combinations
+ * are built from a table of the permutations of three items, and applying
+ * them takes a single pass over the 81 cells, so unlike
+ * Board.makeSolution(GlobalVar) this never has to back out of a
+ * contradiction and never fails.
+ * <p>
+ * Each seed grid gives over 10<sup>12</sup> different grids. More seed grids
+ * (for example, grids made by Board.makeSolution) can be added to widen the
+ * range of grids produced. A factory can be shared between threads.
+ * </p>
+ *
+ * @author gringer
+ * @see Board#makeSolution(GridFactory, GlobalVar)
+ */
+public class GridFactory {
+  /** The six permutations of three items */
+  static final int[][] PERM3 = { { 0, 1, 2 }, { 0, 2, 1 },
+      { 1, 0, 2 }, { 1, 2, 0 }, { 2, 0, 1 }, { 2, 1, 0 } };
+
+  private static final String[] SEED_GRIDS = {
+      "765231498218749653934658217543986172826317945179524386451863729687492531392175864",
+      "394568271157932846682174539813425967465719328279683154928346715541297683736851492",
+      "132846759746159283895372416478291365321765894569438127254683971983517642617924538",
+      "317658249826491537945723681569187324234965718178234965682549173793816452451372896" };
+
+  /* seed grids as unpacked numbers (0-8); replaced rather than changed */
+  private volatile int[][] seeds = new int[0][];
+
+  /**
+   * Creates a factory using the built-in seed grids.
+   */
+  public GridFactory() {
+    for (int i = 0; i < SEED_GRIDS.length; i++) {
+      addSeed(SEED_GRIDS[i]);
+    }
+  }
+
+  /**
+   * Adds a seed grid, given as a string of 81 numbers (1-9).
+   *
+   * @param tGrid
+   *           the completed grid, row by row
+   * @return false if the grid is not a valid completed grid
+   */
+  public boolean addSeed(String tGrid) {
+    if (tGrid.length() != 81) {
+      System.out.println("Seed grid is an incorrect size");
+      return false;
+    }
+    int[] tSeed = new int[81];
+    for (int i = 0; i < 81; i++) {
+      tSeed[i] = Character.digit(tGrid.charAt(i), 10) - 1;
+    }
+    return addSeed(tSeed, false);
+  }
+
+  /**
+   * Adds a seed grid, given in the same format as Board.staticSave(int[]).
+   *
+   * @param tBoard
+   *           array of 81 bit-packed values, each with a single candidate
+   * @return false if the grid is not a valid completed grid
+   */
+  public boolean addSeed(int[] tBoard) {
+    return addSeed(tBoard, true);
+  }
+
+  private synchronized boolean addSeed(int[] tBoard, boolean packed) {
+    if (tBoard.length < 81) {
+      System.out.println("Seed grid is an incorrect size");
+      return false;
+    }
+    int[] tSeed = new int[81];
+    for (int i = 0; i < 81; i++) {
+      int tVal = tBoard[i];
+      if (packed) {
+        tVal = (Point.signature(tVal) == Point.SINGLE) ?
+            Integer.numberOfTrailingZeros(tVal) : -1;
+      }
+      if ((tVal < 0) || (tVal > 8)) {
+        System.out.println("Seed grid is not complete");
+        return false;
+      }
+      tSeed[i] = tVal;
+    }
+    for (int u = 0; u < 27; u++) {
+      int tNums = 0;
+      for (int j = 0; j < 9; j++) {
+        tNums |= 1 << tSeed[Grid.UNITS[u][j]];
+      }
+      if (tNums != 511) {
+        System.out.println("Seed grid is not a valid solution");
+        return false;
+      }
+    }
+    int[][] tSeeds = new int[seeds.length + 1][];
+    System.arraycopy(seeds, 0, tSeeds, 0, seeds.length);
+    tSeeds[seeds.length] = tSeed;
+    seeds = tSeeds;
+    return true;
+  }
+
+  /**
+   * Retrieves the number of seed grids in this factory.
+   *
+   * @return the number of seed grids
+   */
+  public int getNumSeeds() {
+    return seeds.length;
+  }
+
+  /**
+   * Makes a new completed grid by applying a random transformation to a
+   * random seed grid.
+   *
+   * @param tGen
+   *           random number generator used to choose the transformation
+   * @param result
+   *           array that the grid will be saved to, in the same format as
+   *           Board.staticSave(int[])
+   */
+  public void nextGrid(SplitMix64 tGen, int[] result) {
+    int[][] tSeeds = seeds;
+    int[] tSeed = tSeeds[tGen.nextInt(tSeeds.length)];
+    int[] rowMap = new int[9];
+    int[] colMap = new int[9];
+    int[] numMap = new int[9];
+    lineMap(tGen, rowMap);
+    lineMap(tGen, colMap);
+    for (int i = 0; i < 9; i++) {
+      int j = tGen.nextInt(i + 1);
+      numMap[i] = numMap[j];
+      numMap[j] = 1 << i;
+    }
+    boolean transpose = (tGen.nextInt(2) == 1);
+    for (int r = 0; r < 9; r++) {
+      for (int c = 0; c < 9; c++) {
+        int src = transpose ? (colMap[c] * 9 + rowMap[r])
+            : (rowMap[r] * 9 + colMap[c]);
+        result[r * 9 + c] = numMap[tSeed[src]];
+      }
+    }
+  }
+
+  /**
+   * Chooses where each row (or column) of the new grid comes from: a
+   * permutation of the bands (or stacks), then a permutation of the lines
+   * within each of them.
+   */
+  private static void lineMap(SplitMix64 tGen, int[] map) {
+    int[] tBands = PERM3[tGen.nextInt(6)];
+    for (int b = 0; b < 3; b++) {
+      int[] tLines = PERM3[tGen.nextInt(6)];
+      for (int k = 0; k < 3; k++) {
+        map[b * 3 + k] = tBands[b] * 3 + tLines[k];
+      }
+    }
+  }
+}
@@ -26,6 +26,8 @@ public class Line {
    Point points[];
    Board board;
    int[] tempVals = new int[9];
+   int[] tempRems = new int[9];
+   SubsetFinder subsets = new SubsetFinder();
    boolean changed;
    public Line() {
       points = new Point[9];
@@ -269,28 +271,21 @@ public class Line {
    /**
      * Logic method that removes implicit / hidden subsets of numbers from
      * subsets of Points within the org.gringene.jmesudoyu.base.Line. When the cardinality of the union of n
-     * Points is n, remove that union from all other Points. This is actually a
-     * generalisation of most of the other logic methods, but is incredibly time
-     * consuming, so is only done as a last resort.
+     * Points is n, remove that union from all other Points. When n numbers
+     * can only be found in n Points, remove all other numbers from those
+     * Points. This is actually a generalisation of most of the other logic
+     * methods, so is only done as a last resort.
      * 
      * @return true if values were removed
+     * @see SubsetFinder
      */
     public boolean remSubsets() {
         boolean retVal = false;
-        int posMask = 0;
         getPoints(tempVals);
-        for(int i=0; i<9; i++){
-            if(Point.signature(tempVals[i]) == Point.MULTIPLE){
-                posMask |= 1 << i;
-            }
-        }
-        for (int tPos = 1; tPos < 511; tPos++) {
-            if((tPos & posMask) != 0){
-            int lUnion = this.union(tPos, tempVals);
-                if(lUnion != 511){
-                    if (Point.countBits(lUnion) == Point.countBits(tPos)) {
-                        retVal = this.remBits(lUnion, tPos, true) || retVal;
-                    }
+        if (subsets.find(tempVals, tempRems)) {
+            for (int i = 0; i < 9; i++) {
+                if (tempRems[i] != 0) {
+                    retVal = points[i].remBits(tempRems[i]) || retVal;
                 }
             }
         }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * A single logic technique that can be run by a Propagator. Each technique
+ * works on one target at a time (a solved cell, a unit, or a box, depending
+ * on its scope), and the Propagator only runs it on targets that have
+ * changed since it was last run there. Techniques are run cheapest first,
+ * and make their deductions by calling Propagator.remove, which keeps track
+ * of the resulting work and of contradictions.
+ *
+ * @author gringer
+ * @see Propagator#register(LogicTechnique)
+ */
+public interface LogicTechnique {
+   /** Target is the index of a cell that has just been solved */
+   static int SCOPE_SOLVED = 0;
+   /** Target is the index (0-26) of a row, column or box that has changed */
+   static int SCOPE_UNIT = 1;
+   /** Target is the unit index (18-26) of a box that has changed */
+   static int SCOPE_BOX = 2;
+   /** Target is a number (0-8) that has had candidates removed */
+   static int SCOPE_DIGIT = 3;
+   /**
+    * Retrieves a short name for the technique, for use in reports.
+    *
+    * @return name of the technique
+    */
+   abstract public String getName();
+   /**
+    * Retrieves the logic level of the technique. The technique is only run
+    * when logic is applied up to at least this level, and its successes are
+    * counted against this level in the analysis.
+    *
+    * @return logic level (1 for the simplest logic)
+    */
+   abstract public int getLevel();
+   /**
+    * Retrieves the relative cost of running the technique once. When more
+    * than one technique has work queued, the cheapest one is run first.
+    *
+    * @return relative cost
+    */
+   abstract public int getCost();
+   /**
+    * Retrieves the kind of target that the technique works on.
+    *
+    * @return one of SCOPE_SOLVED, SCOPE_UNIT, SCOPE_BOX or SCOPE_DIGIT
+    */
+   abstract public int getScope();
+   /**
+    * Runs the technique on one target.
+    *
+    * @param tProp
+    *           Propagator that holds the grid and receives deductions
+    * @param target
+    *           cell, unit or number index, depending on the scope
+    * @return true if any candidates were removed
+    */
+   abstract public boolean apply(Propagator tProp, int target);
+}
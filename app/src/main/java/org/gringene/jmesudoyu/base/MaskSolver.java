@@ -0,0 +1,233 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Depth-first solver working directly on bit-packed candidate masks (the
+ * same encoding as Point). Between branches, naked singles (a cell with one
+ * candidate) and hidden singles (a number with one place in a unit) are
+ * propagated. Branching is done on the unsolved cell with the fewest
+ * candidates. The search uses an explicit stack of board copies rather than
+ * recursion, and all of its working space is allocated when the solver is
+ * created, so that no objects are created while solving.
+ *
+ * @author gringer
+ * @see Board#solveCompletely(int)
+ */
+public class MaskSolver {
+  /* each frame holds 81 cell masks, followed by 3 words of "done" flags */
+  private static final int FRAME = 84;
+
+  private final int[] state = new int[FRAME];
+
+  private final int[][] stack = new int[82][FRAME];
+
+  private final int[] branchCell = new int[82];
+
+  private final int[] branchBits = new int[82];
+
+  private final int[] solution = new int[81];
+
+  private final int[] queue = new int[81]; // each cell is queued once at most
+
+  private int numSolutions;
+
+  /**
+   * Counts the solutions of a board given as bit-packed candidate values,
+   * stopping once a given number of solutions have been found.
+   *
+   * @param tBoard
+   *           array of 81 bit-packed candidate values
+   * @param limit
+   *           maximum number of solutions to search for
+   * @return the number of solutions found, no more than limit
+   */
+  public int solve(int[] tBoard, int limit) {
+    if (tBoard.length < 81) {
+      System.out.println("Solved board is an incorrect size");
+      return 0;
+    }
+    limit = Math.max(1, limit);
+    numSolutions = 0;
+    System.arraycopy(tBoard, 0, state, 0, 81);
+    state[81] = 0;
+    state[82] = 0;
+    state[83] = 0;
+    if (!propagate(-1)) {
+      return 0;
+    }
+    int depth = 0;
+    while (true) {
+      int pos = chooseCell();
+      if (pos < 0) {
+        if (numSolutions == 0) {
+          System.arraycopy(state, 0, solution, 0, 81);
+        }
+        numSolutions++;
+        if (numSolutions >= limit) {
+          return numSolutions;
+        }
+      } else {
+        System.arraycopy(state, 0, stack[depth], 0, FRAME);
+        branchCell[depth] = pos;
+        branchBits[depth] = state[pos];
+        depth++;
+      }
+      // find the next untried branch, unwinding exhausted levels
+      boolean found = false;
+      while (!found && (depth > 0)) {
+        int tLevel = depth - 1;
+        if (branchBits[tLevel] == 0) {
+          depth--;
+        } else {
+          int tBit = branchBits[tLevel] & -branchBits[tLevel];
+          branchBits[tLevel] &= ~tBit;
+          System.arraycopy(stack[tLevel], 0, state, 0, FRAME);
+          state[branchCell[tLevel]] = tBit;
+          found = propagate(branchCell[tLevel]);
+        }
+      }
+      if (!found) {
+        return numSolutions;
+      }
+    }
+  }
+
+  /**
+   * Copies the first solution found by the most recent solve into an array,
+   * using the same format as Board.staticSave(int[]).
+   *
+   * @param result
+   *           array that the solution will be saved to
+   * @return true if there was a solution to copy
+   */
+  public boolean getSolution(int[] result) {
+    if (numSolutions > 0) {
+      System.arraycopy(solution, 0, result, 0, 81);
+    }
+    return (numSolutions > 0);
+  }
+
+  /**
+   * Finds the unsolved cell with the fewest candidates.
+   *
+   * @return cell index, or -1 if all cells are solved
+   */
+  private int chooseCell() {
+    int best = -1;
+    int bestCount = 10;
+    for (int i = 0; i < 81; i++) {
+      int tCount = Point.bitCounts[state[i]];
+      if ((tCount > 1) && (tCount < bestCount)) {
+        best = i;
+        bestCount = tCount;
+        if (tCount == 2) {
+          break;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Applies naked and hidden singles to the current state until nothing
+   * changes. Newly solved cells are placed on a queue, so only the peers of
+   * cells that have changed are visited when removing naked singles. A cell
+   * can only become solved once, so the queue never holds more than 81
+   * entries.
+   *
+   * @param pos
+   *           the only cell that has changed since the state was last
+   *           propagated, or -1 to check every cell
+   * @return false if a contradiction was found
+   */
+  private boolean propagate(int pos) {
+    int qHead = 0;
+    int qTail = 0;
+    if (pos >= 0) {
+      queue[qTail++] = pos;
+    } else {
+      for (int i = 0; i < 81; i++) {
+        int m = state[i];
+        if (m == 0) {
+          return false;
+        }
+        if ((m & (m - 1)) == 0) {
+          queue[qTail++] = i;
+        }
+      }
+    }
+    while (true) {
+      while (qHead < qTail) {
+        int i = queue[qHead++];
+        int tWord = 81 + (i >> 5);
+        int tFlag = 1 << (i & 31);
+        if ((state[tWord] & tFlag) == 0) {
+          state[tWord] |= tFlag;
+          int m = state[i];
+          int[] peers = Grid.PEERS[i];
+          for (int j = 0; j < 20; j++) {
+            int p = peers[j];
+            int pVal = state[p];
+            if ((pVal & m) != 0) {
+              pVal &= ~m;
+              if (pVal == 0) {
+                return false;
+              }
+              state[p] = pVal;
+              if ((pVal & (pVal - 1)) == 0) {
+                queue[qTail++] = p;
+              }
+            }
+          }
+        }
+      }
+      for (int u = 0; u < 27; u++) {
+        int[] unit = Grid.UNITS[u];
+        int atLeastOnce = 0;
+        int moreThanOnce = 0;
+        for (int j = 0; j < 9; j++) {
+          moreThanOnce |= atLeastOnce & state[unit[j]];
+          atLeastOnce |= state[unit[j]];
+        }
+        if (atLeastOnce != 511) {
+          return false;
+        }
+        int exactlyOnce = atLeastOnce & ~moreThanOnce;
+        if (exactlyOnce != 0) {
+          for (int j = 0; j < 9; j++) {
+            int m = state[unit[j]];
+            int tUnique = m & exactlyOnce;
+            if ((tUnique != 0) && (m != tUnique)) {
+              if ((tUnique & (tUnique - 1)) != 0) {
+                return false; // two numbers that can only go in one cell
+              }
+              state[unit[j]] = tUnique;
+              queue[qTail++] = unit[j];
+            }
+          }
+        }
+      }
+      if (qHead == qTail) {
+        return true;
+      }
+    }
+  }
+}
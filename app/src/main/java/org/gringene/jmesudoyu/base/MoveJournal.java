@@ -0,0 +1,632 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only record of the moves made on a game board, so that saving a
+ * game only needs to write the moves made since the last save rather than
+ * the whole board.
+ * <p>
+ * Once attached to a Board, every move made through the Board's play methods
+ * (set, remove, flip, clear, lockBoard, unlockBoard and reset) is recorded
+ * with its cell, number and time. Moves made while the board's Grid holds a
+ * mark are trial changes that will be rolled back, so they are not recorded.
+ * Loading a whole board (staticLoad) or applying logic to it records a
+ * checkpoint holding every cell, so restoring a board never depends on the
+ * logic code of the version that restores it. A checkpoint is also recorded
+ * every CHECKPOINT_INTERVAL moves. Recorded entries are kept in memory until save() is called; they
+ * are then appended to the journal file (and synced to the storage device)
+ * by a background thread, so saving never makes the caller wait for the
+ * file. flush() waits for saved entries to be written, and should be called
+ * (or close(), which also flushes) before the program exits.
+ * </p>
+ * <p>
+ * restore(Board) loads the last checkpoint in the file and replays the moves
+ * that follow it. Entries before the last checkpoint are no longer needed, so
+ * once the file grows past COMPACT_SIZE, the background thread rewrites it
+ * with only the last checkpoint and the moves after it. An entry that was
+ * only partly written (or is damaged) ends the journal; everything before it
+ * is still restored.
+ * </p>
+ * <p>
+ * The file is a version byte, followed by entries. A move is a type byte,
+ * the cell index, the number (or logic level) and the time in milliseconds
+ * (11 bytes). A checkpoint is a type byte, the time, two bytes for each cell
+ * (the candidate mask, with the top bit set for locked cells) and a CRC32 of
+ * the cells (175 bytes).
+ * </p>
+ *
+ * @author gringer
+ * @see Board#setJournal(MoveJournal)
+ */
+public class MoveJournal implements Runnable {
+  /** A number placed with Board.set */
+  public static final int SET = 1;
+
+  /** A candidate removed with Board.remove */
+  public static final int REMOVE = 2;
+
+  /** A candidate flipped with Board.flip */
+  public static final int FLIP = 3;
+
+  /** A cell cleared with Board.clear */
+  public static final int CLEAR = 4;
+
+  /** Decided cells locked with Board.lockBoard */
+  public static final int LOCK = 5;
+
+  /** All cells unlocked with Board.unlockBoard */
+  public static final int UNLOCK = 6;
+
+  /** The board cleared with Board.reset (number is 1 if locked cells stay) */
+  public static final int RESET = 7;
+
+  /** Every cell of the board */
+  public static final int CHECKPOINT = 9;
+
+  /** Number of moves recorded between checkpoints */
+  public static final int CHECKPOINT_INTERVAL = 64;
+
+  /** File size (in bytes) beyond which the file is compacted */
+  public static final int COMPACT_SIZE = 16384;
+
+  private static final int FILEVERSION = 1;
+
+  private static final int MOVELENGTH = 11;
+
+  private static final int CHECKPOINTLENGTH = 1 + 8 + 81 * 2 + 4;
+
+  private final File journalFile;
+
+  private Board board;
+
+  /* entries recorded since the last save */
+  private byte[] pending = new byte[256];
+
+  private int pendingLength;
+
+  private int movesSinceCheckpoint;
+
+  private boolean replaying;
+
+  /* true until the journal holds a state that moves can be replayed on */
+  private boolean needsCheckpoint = true;
+
+  /* entries saved but not yet written to the file */
+  private byte[] unwritten = new byte[256];
+
+  private int unwrittenLength;
+
+  private boolean writing;
+
+  private boolean lastWriteOK = true;
+
+  private Thread writer;
+
+  private boolean running;
+
+  /* held while the file is read or written */
+  private final Object fileLock = new Object();
+
+  /**
+   * Creates a journal that is saved to a given file.
+   *
+   * @param tFile
+   *           file that the journal is appended to
+   */
+  public MoveJournal(File tFile) {
+    journalFile = tFile;
+  }
+
+  /**
+   * Starts recording the moves made on a board. Nothing is recorded until
+   * the first move or load; unless the board has been restored from this
+   * journal, the first entry recorded is a checkpoint of the whole board.
+   *
+   * @param tBoard
+   *           board to record moves from
+   */
+  public synchronized void attach(Board tBoard) {
+    if (board != null) {
+      board.setJournal(null);
+    }
+    board = tBoard;
+    needsCheckpoint = true;
+    if (board != null) {
+      board.setJournal(this);
+    }
+  }
+
+  /**
+   * Records a move. This is called by the Board after the move is made.
+   *
+   * @param tType
+   *           type of move (SET, REMOVE, ...)
+   * @param pos
+   *           index of the cell that was changed (0 for whole-board moves)
+   * @param tNum
+   *           number used in the move (unpacked, 0-8), or the logic level
+   */
+  synchronized void record(int tType, int pos, int tNum) {
+    if (replaying) {
+      return;
+    }
+    if (needsCheckpoint) {
+      checkpoint(); // the move has already been made, so it is included
+      return;
+    }
+    ensurePending(MOVELENGTH);
+    pending[pendingLength++] = (byte) tType;
+    pending[pendingLength++] = (byte) pos;
+    pending[pendingLength++] = (byte) tNum;
+    putLong(pending, pendingLength, System.currentTimeMillis());
+    pendingLength += 8;
+    movesSinceCheckpoint++;
+    if (movesSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+      checkpoint(); // the move has already been made, so it is included
+    }
+  }
+
+  /**
+   * Records a checkpoint holding every cell of the attached board. This is
+   * called by the Board after a whole board is loaded.
+   */
+  synchronized void checkpoint() {
+    if (replaying || (board == null)) {
+      return;
+    }
+    ensurePending(CHECKPOINTLENGTH);
+    int tStart = pendingLength;
+    pending[pendingLength++] = (byte) CHECKPOINT;
+    putLong(pending, pendingLength, System.currentTimeMillis());
+    pendingLength += 8;
+    for (int i = 0; i < 81; i++) {
+      int tVal = (board.board[i].getValue() & 0x7fff)
+          | (board.board[i].getLocked() ? 0x8000 : 0);
+      pending[pendingLength++] = (byte) (tVal >>> 8);
+      pending[pendingLength++] = (byte) tVal;
+    }
+    CRC32 tCRC = new CRC32();
+    tCRC.update(pending, tStart + 9, 81 * 2);
+    putInt(pending, pendingLength, (int) tCRC.getValue());
+    pendingLength += 4;
+    movesSinceCheckpoint = 0;
+    needsCheckpoint = false;
+  }
+
+  private void ensurePending(int tLength) {
+    if (pendingLength + tLength > pending.length) {
+      byte[] tPending = new byte[Math.max(pending.length * 2,
+          pendingLength + tLength)];
+      System.arraycopy(pending, 0, tPending, 0, pendingLength);
+      pending = tPending;
+    }
+  }
+
+  /**
+   * Retrieves the number of bytes recorded but not yet saved.
+   *
+   * @return number of unsaved bytes
+   */
+  public synchronized int getPendingLength() {
+    return pendingLength;
+  }
+
+  /**
+   * Saves the entries recorded since the last save. The entries are appended
+   * to the journal file (and synced to the storage device) in the background;
+   * if the file has grown past COMPACT_SIZE, it is then compacted.
+   */
+  public synchronized void save() {
+    if (pendingLength == 0) {
+      return;
+    }
+    if (unwrittenLength + pendingLength > unwritten.length) {
+      byte[] tUnwritten = new byte[Math.max(unwritten.length * 2,
+          unwrittenLength + pendingLength)];
+      System.arraycopy(unwritten, 0, tUnwritten, 0, unwrittenLength);
+      unwritten = tUnwritten;
+    }
+    System.arraycopy(pending, 0, unwritten, unwrittenLength, pendingLength);
+    unwrittenLength += pendingLength;
+    pendingLength = 0;
+    if (writer == null) {
+      running = true;
+      writer = new Thread(this, "MoveJournal");
+      writer.setDaemon(true);
+      writer.start();
+    }
+    notifyAll();
+  }
+
+  /**
+   * Waits until every entry saved so far has been written to the file.
+   *
+   * @return false if the most recent write failed (or the wait was
+   *         interrupted)
+   */
+  public synchronized boolean flush() {
+    try {
+      while ((unwrittenLength > 0) || writing) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return lastWriteOK;
+  }
+
+  /**
+   * Saves any recorded entries, waits for them to be written, then stops the
+   * background writer. The writer is started again by the next save.
+   *
+   * @return true if the entries were written successfully
+   */
+  public boolean close() {
+    save();
+    boolean retVal = flush();
+    Thread tWriter;
+    synchronized (this) {
+      running = false;
+      tWriter = writer;
+      writer = null;
+      notifyAll();
+    }
+    if (tWriter != null) {
+      try {
+        tWriter.join(2000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Writes saved entries to the file (compacting it when it gets too large)
+   * until the journal is closed.
+   */
+  public void run() {
+    while (true) {
+      byte[] tData;
+      synchronized (this) {
+        try {
+          if (unwrittenLength == 0) {
+            if (!running) {
+              break;
+            }
+            wait();
+            continue;
+          }
+        } catch (InterruptedException e) {
+          running = false;
+          continue;
+        }
+        tData = new byte[unwrittenLength];
+        System.arraycopy(unwritten, 0, tData, 0, unwrittenLength);
+        unwrittenLength = 0;
+        writing = true;
+      }
+      boolean tOK = append(tData);
+      if (tOK && (journalFile.length() > COMPACT_SIZE)) {
+        compact();
+      }
+      synchronized (this) {
+        writing = false;
+        lastWriteOK = tOK;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Appends entries to the journal file, syncing them to the storage device.
+   */
+  private boolean append(byte[] tData) {
+    synchronized (fileLock) {
+      boolean tNewFile = !journalFile.exists() || (journalFile.length() == 0);
+      FileOutputStream fos = null;
+      try {
+        fos = new FileOutputStream(journalFile, true);
+        if (tNewFile) {
+          fos.write(FILEVERSION);
+        }
+        fos.write(tData);
+        fos.getFD().sync();
+        fos.close();
+        fos = null;
+        return true;
+      } catch (IOException e) {
+        System.out.println("Unable to save move journal: " + e);
+        return false;
+      } finally {
+        if (fos != null) {
+          try {
+            fos.close();
+          } catch (IOException e) {
+            System.out.println("Unable to close move journal");
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Rewrites the journal file with only the last checkpoint and the moves
+   * that follow it. The new file is written under a temporary name first, so
+   * an interrupted compaction leaves the old file in place. This is
+   * normally done by the background writer.
+   *
+   * @return true if the file was compacted (or did not need compacting)
+   */
+  public boolean compact() {
+    synchronized (fileLock) {
+      return compactFile();
+    }
+  }
+
+  private boolean compactFile() {
+    byte[] tData = readFile();
+    if (tData == null) {
+      return false;
+    }
+    int[] tBounds = scan(tData);
+    int tFrom = tBounds[0];
+    int tEnd = tBounds[1];
+    if ((tFrom <= 1) && (tEnd == tData.length)) {
+      return true;
+    }
+    File tempFile = new File(journalFile.getPath() + ".tmp");
+    FileOutputStream fos = null;
+    try {
+      fos = new FileOutputStream(tempFile);
+      fos.write(FILEVERSION);
+      fos.write(tData, tFrom, tEnd - tFrom);
+      fos.getFD().sync();
+      fos.close();
+      fos = null;
+      if (!tempFile.renameTo(journalFile)) {
+        journalFile.delete();
+        if (!tempFile.renameTo(journalFile)) {
+          System.out.println("Unable to replace move journal");
+          return false;
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      System.out.println("Unable to compact move journal: " + e);
+      return false;
+    } finally {
+      if (fos != null) {
+        try {
+          fos.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close move journal");
+        }
+      }
+    }
+  }
+
+  /**
+   * Restores a board from the journal file: the last checkpoint is loaded,
+   * and the moves after it are replayed. If the file has no checkpoint, the
+   * moves are replayed on a blank board. A damaged tail is cut off the file,
+   * so that later saves follow the last good entry. Entries recorded since the
+   * last save are discarded, so the board returns to how it was at that save.
+   *
+   * @param tBoard
+   *           board to restore
+   * @return number of moves replayed, or -1 if there was nothing to restore
+   */
+  public synchronized int restore(Board tBoard) {
+    pendingLength = 0;
+    needsCheckpoint = true;
+    flush();
+    byte[] tData;
+    int tPos;
+    int tEnd;
+    synchronized (fileLock) {
+      tData = readFile();
+      if ((tData == null) || (tData.length <= 1)) {
+        return -1;
+      }
+      int[] tBounds = scan(tData);
+      tPos = tBounds[0];
+      tEnd = tBounds[1];
+      if (tEnd < tData.length) {
+        System.out.println("Move journal is damaged after " + tEnd + " bytes");
+        truncate(tEnd);
+      }
+    }
+    if (tEnd <= 1) {
+      return -1;
+    }
+    int numMoves = 0;
+    replaying = true;
+    try {
+      if ((tPos < tEnd) && (tData[tPos] == CHECKPOINT)) {
+        for (int i = 0; i < 81; i++) {
+          int tVal = ((tData[tPos + 9 + i * 2] & 0xff) << 8)
+              | (tData[tPos + 10 + i * 2] & 0xff);
+          tBoard.board[i].setExact(tVal & 0x7fff);
+          tBoard.board[i].setLocked((tVal & 0x8000) != 0);
+        }
+        tPos += CHECKPOINTLENGTH;
+      } else {
+        tBoard.unlockBoard();
+        tBoard.reset(false);
+      }
+      for (; tPos < tEnd; tPos += MOVELENGTH) {
+        replay(tBoard, tData[tPos], tData[tPos + 1], tData[tPos + 2]);
+        numMoves++;
+      }
+    } finally {
+      replaying = false;
+    }
+    movesSinceCheckpoint = numMoves;
+    needsCheckpoint = (tBoard != board);
+    return numMoves;
+  }
+
+  /**
+   * Makes a recorded move on a board.
+   */
+  private static void replay(Board tBoard, int tType, int pos, int tNum) {
+    int tx = pos % 9;
+    int ty = pos / 9;
+    if (tType == SET) {
+      tBoard.set(tNum, tx, ty);
+    } else if (tType == REMOVE) {
+      tBoard.remove(tNum, tx, ty);
+    } else if (tType == FLIP) {
+      tBoard.flip(tNum, tx, ty);
+    } else if (tType == CLEAR) {
+      tBoard.clear(tx, ty);
+    } else if (tType == LOCK) {
+      tBoard.lockBoard();
+    } else if (tType == UNLOCK) {
+      tBoard.unlockBoard();
+    } else if (tType == RESET) {
+      tBoard.reset(tNum != 0);
+    }
+  }
+
+  /**
+   * Finds the entries of a journal file that are still needed.
+   *
+   * @param tData
+   *           contents of the journal file
+   * @return the position of the last good checkpoint (or of the first entry,
+   *         if there is none), and the end of the last good entry
+   */
+  private static int[] scan(byte[] tData) {
+    int[] tBounds = {1, 1};
+    if ((tData.length == 0) || (tData[0] < 1) || (tData[0] > FILEVERSION)) {
+      tBounds[0] = 0;
+      tBounds[1] = 0;
+      return tBounds;
+    }
+    int tPos = 1;
+    while (tPos < tData.length) {
+      int tType = tData[tPos];
+      if ((tType >= SET) && (tType <= RESET)) {
+        if ((tPos + MOVELENGTH > tData.length)
+            || ((tData[tPos + 1] & 0xff) >= 81)) {
+          break;
+        }
+        tPos += MOVELENGTH;
+      } else if (tType == CHECKPOINT) {
+        if (tPos + CHECKPOINTLENGTH > tData.length) {
+          break;
+        }
+        CRC32 tCRC = new CRC32();
+        tCRC.update(tData, tPos + 9, 81 * 2);
+        if (getInt(tData, tPos + 9 + 81 * 2) != (int) tCRC.getValue()) {
+          break;
+        }
+        tBounds[0] = tPos;
+        tPos += CHECKPOINTLENGTH;
+      } else {
+        break;
+      }
+      tBounds[1] = tPos;
+    }
+    return tBounds;
+  }
+
+  private byte[] readFile() {
+    if (!journalFile.exists()) {
+      return new byte[0];
+    }
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(journalFile);
+      byte[] tData = new byte[(int) journalFile.length()];
+      int tRead = 0;
+      while (tRead < tData.length) {
+        int tCount = in.read(tData, tRead, tData.length - tRead);
+        if (tCount < 0) {
+          break;
+        }
+        tRead += tCount;
+      }
+      if (tRead < tData.length) {
+        byte[] tShort = new byte[tRead];
+        System.arraycopy(tData, 0, tShort, 0, tRead);
+        tData = tShort;
+      }
+      return tData;
+    } catch (IOException e) {
+      System.out.println("Unable to read move journal: " + e);
+      return null;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close move journal");
+        }
+      }
+    }
+  }
+
+  private void truncate(int tLength) {
+    RandomAccessFile tFile = null;
+    try {
+      tFile = new RandomAccessFile(journalFile, "rw");
+      tFile.setLength(tLength);
+    } catch (IOException e) {
+      System.out.println("Unable to repair move journal: " + e);
+    } finally {
+      if (tFile != null) {
+        try {
+          tFile.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close move journal");
+        }
+      }
+    }
+  }
+
+  private static void putLong(byte[] tData, int pos, long tVal) {
+    putInt(tData, pos, (int) (tVal >>> 32));
+    putInt(tData, pos + 4, (int) tVal);
+  }
+
+  private static void putInt(byte[] tData, int pos, int tVal) {
+    tData[pos] = (byte) (tVal >>> 24);
+    tData[pos + 1] = (byte) (tVal >>> 16);
+    tData[pos + 2] = (byte) (tVal >>> 8);
+    tData[pos + 3] = (byte) tVal;
+  }
+
+  private static int getInt(byte[] tData, int pos) {
+    return ((tData[pos] & 0xff) << 24) | ((tData[pos + 1] & 0xff) << 16)
+        | ((tData[pos + 2] & 0xff) << 8) | (tData[pos + 3] & 0xff);
+  }
+}
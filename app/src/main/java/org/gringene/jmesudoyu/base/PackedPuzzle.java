@@ -0,0 +1,436 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Compact binary encodings for puzzles and completed grids, for storing large
+ * numbers of them (puzzle pools, saved resources, corpora).
+ * <p>
+ * A puzzle is stored as an 81-bit mask of the given cells (11 bytes, cell i
+ * at bit (i % 8) of byte (i / 8)), followed by the number at each given cell
+ * in order, two to a byte (4 bits each, high half first, stored as 1-9). A
+ * puzzle with 25 givens takes 24 bytes, rather than the 81 bytes of a digit
+ * string or the 244 bytes of a BOARDDATA resource. Cells that are not given
+ * are loaded with every candidate (511).
+ * </p>
+ * <p>
+ * A completed grid is stored as a mixed-radix number in a fixed
+ * GRIDBYTES-byte block. Filling the grid cell by cell (row by row), each cell
+ * can only hold the numbers not already used in its row, column or box, so
+ * the cell is stored as the position of its number among those that are
+ * left, with the number of numbers left as the radix. Cells where only one
+ * number is left take no space at all. No completed grid needs more than 104
+ * bits this way (most need about 80), compared to 324 bits for 4 bits per
+ * cell.
+ * </p>
+ * <p>
+ * The bulk methods work on many boards held one after another in a single
+ * int array (81 values per board), so that large batches can be converted
+ * without creating objects for each board.
+ * </p>
+ *
+ * @author gringer
+ * @see SaveResource#PACKEDBOARD
+ * @see PuzzlePool
+ */
+public class PackedPuzzle {
+  /** Number of bytes in the mask of given cells */
+  public static final int MASKBYTES = 11;
+
+  /** Largest number of bytes used by a packed puzzle (all cells given) */
+  public static final int MAXBYTES = MASKBYTES + 41;
+
+  /** Number of bytes used by a packed completed grid */
+  public static final int GRIDBYTES = 13;
+
+  private static final long LOW32 = 0xffffffffL;
+
+  /**
+   * Indicates whether a cell value is a single number.
+   */
+  private static boolean isGiven(int tVal) {
+    return (tVal > 0) && (tVal < 512) && ((tVal & (tVal - 1)) == 0);
+  }
+
+  /**
+   * Works out the number of bytes needed for a packed puzzle with a given
+   * number of givens.
+   *
+   * @param numGivens
+   *           number of given cells
+   * @return number of bytes in the packed puzzle
+   */
+  public static int packedLength(int numGivens) {
+    return MASKBYTES + ((numGivens + 1) >> 1);
+  }
+
+  /**
+   * Works out the number of bytes needed to pack a board.
+   *
+   * @param tBoard
+   *           array of 81 bit-packed candidate values
+   * @return number of bytes in the packed puzzle
+   */
+  public static int packedLength(int[] tBoard) {
+    int numGivens = 0;
+    for (int i = 0; i < 81; i++) {
+      if (isGiven(tBoard[i])) {
+        numGivens++;
+      }
+    }
+    return packedLength(numGivens);
+  }
+
+  /**
+   * Works out the length of a packed puzzle from its mask of givens, so that
+   * packed puzzles can be stored one after another without a length prefix.
+   *
+   * @param in
+   *           array containing the packed puzzle
+   * @param offset
+   *           position of the start of the packed puzzle
+   * @return number of bytes in the packed puzzle, or -1 if the mask is not
+   *         valid
+   */
+  public static int packedLength(byte[] in, int offset) {
+    if ((offset < 0) || (in.length - offset < MASKBYTES)
+        || ((in[offset + MASKBYTES - 1] & 0xfe) != 0)) {
+      return -1;
+    }
+    int numGivens = 0;
+    for (int b = 0; b < MASKBYTES; b++) {
+      numGivens += Point.bitCounts[in[offset + b] & 0xff];
+    }
+    return packedLength(numGivens);
+  }
+
+  /**
+   * Packs a puzzle into an array of bytes. Only cells with a single number
+   * are stored; candidates at other cells are lost.
+   *
+   * @param tBoard
+   *           array of 81 bit-packed candidate values
+   * @param out
+   *           array that the packed puzzle will be written to
+   * @param offset
+   *           position in the output array to start writing
+   * @return number of bytes written
+   */
+  public static int encode(int[] tBoard, byte[] out, int offset) {
+    return encode(tBoard, 0, out, offset);
+  }
+
+  private static int encode(int[] tBoards, int start, byte[] out,
+                            int offset) {
+    int tPos = offset + MASKBYTES;
+    int tMask = 0;
+    int tPair = 0;
+    int numGivens = 0;
+    for (int i = 0; i < 81; i++) {
+      int tVal = tBoards[start + i];
+      if (isGiven(tVal)) {
+        tMask |= 1 << (i & 7);
+        tPair = (tPair << 4) | (Integer.numberOfTrailingZeros(tVal) + 1);
+        if ((++numGivens & 1) == 0) {
+          out[tPos++] = (byte) tPair;
+          tPair = 0;
+        }
+      }
+      if (((i & 7) == 7) || (i == 80)) {
+        out[offset + (i >> 3)] = (byte) tMask;
+        tMask = 0;
+      }
+    }
+    if ((numGivens & 1) != 0) {
+      out[tPos++] = (byte) (tPair << 4);
+    }
+    return tPos - offset;
+  }
+
+  /**
+   * Unpacks a puzzle from an array of bytes. Cells that are not given are
+   * set to contain every candidate.
+   *
+   * @param in
+   *           array containing the packed puzzle
+   * @param offset
+   *           position of the start of the packed puzzle
+   * @param result
+   *           array of 81 values that the puzzle will be written to
+   * @return number of bytes read, or -1 if the packed puzzle is not valid
+   */
+  public static int decode(byte[] in, int offset, int[] result) {
+    return decode(in, offset, result, 0);
+  }
+
+  private static int decode(byte[] in, int offset, int[] result, int start) {
+    int tLength = packedLength(in, offset);
+    if ((tLength < 0) || (in.length - offset < tLength)) {
+      return -1;
+    }
+    int tPos = offset + MASKBYTES;
+    int numGivens = 0;
+    for (int i = 0; i < 81; i++) {
+      if ((in[offset + (i >> 3)] & (1 << (i & 7))) == 0) {
+        result[start + i] = 511;
+      } else {
+        int tNum = (in[tPos] >> (((numGivens & 1) == 0) ? 4 : 0)) & 0x0f;
+        if ((tNum == 0) || (tNum > 9)) {
+          return -1;
+        }
+        result[start + i] = 1 << (tNum - 1);
+        tPos += numGivens & 1;
+        numGivens++;
+      }
+    }
+    return tLength;
+  }
+
+  /**
+   * Packs a number of puzzles, stored one after another in an array, into
+   * an array of bytes. The packed puzzles are written one after another.
+   *
+   * @param tBoards
+   *           array of bit-packed candidate values, 81 for each puzzle
+   * @param numBoards
+   *           number of puzzles to pack
+   * @param out
+   *           array that the packed puzzles will be written to (at most
+   *           numBoards * MAXBYTES bytes are needed)
+   * @param offset
+   *           position in the output array to start writing
+   * @return number of bytes written
+   */
+  public static int encodeAll(int[] tBoards, int numBoards, byte[] out,
+                              int offset) {
+    int tPos = offset;
+    for (int p = 0; p < numBoards; p++) {
+      tPos += encode(tBoards, p * 81, out, tPos);
+    }
+    return tPos - offset;
+  }
+
+  /**
+   * Unpacks a number of puzzles stored one after another in an array of
+   * bytes.
+   *
+   * @param in
+   *           array containing the packed puzzles
+   * @param offset
+   *           position of the first packed puzzle
+   * @param numBoards
+   *           number of puzzles to unpack
+   * @param result
+   *           array that the puzzles will be written to, 81 values for each
+   * @return number of bytes read, or -1 if any packed puzzle is not valid
+   */
+  public static int decodeAll(byte[] in, int offset, int numBoards,
+                              int[] result) {
+    int tPos = offset;
+    for (int p = 0; p < numBoards; p++) {
+      int tLength = decode(in, tPos, result, p * 81);
+      if (tLength < 0) {
+        return -1;
+      }
+      tPos += tLength;
+    }
+    return tPos - offset;
+  }
+
+  /**
+   * Packs a completed grid into GRIDBYTES bytes.
+   *
+   * @param tGrid
+   *           array of 81 bit-packed values, each a single number
+   * @param out
+   *           array that the packed grid will be written to
+   * @param offset
+   *           position in the output array to start writing
+   * @return false if the grid is not complete and valid
+   */
+  public static boolean encodeGrid(int[] tGrid, byte[] out, int offset) {
+    return encodeGrid(tGrid, 0, out, offset, new int[81], new int[81],
+        new int[27]);
+  }
+
+  /**
+   * Packs a completed grid, using working arrays for the radix and position
+   * of each cell, and the numbers used in each unit.
+   */
+  private static boolean encodeGrid(int[] tGrids, int start, byte[] out,
+                                    int offset, int[] radix, int[] digit,
+                                    int[] used) {
+    for (int u = 0; u < 27; u++) {
+      used[u] = 0;
+    }
+    for (int i = 0; i < 81; i++) {
+      int tVal = tGrids[start + i];
+      int[] units = Grid.CELL_UNITS[i];
+      int tLeft = 511 & ~(used[units[0]] | used[units[1]] | used[units[2]]);
+      if (!isGiven(tVal) || ((tLeft & tVal) == 0)) {
+        return false;
+      }
+      radix[i] = Point.bitCounts[tLeft];
+      digit[i] = Point.bitCounts[tLeft & (tVal - 1)];
+      used[units[0]] |= tVal;
+      used[units[1]] |= tVal;
+      used[units[2]] |= tVal;
+    }
+    // the first cell is the least significant place, so decoding can work
+    // forwards through the grid
+    long l0 = 0, l1 = 0, l2 = 0, l3 = 0;
+    for (int i = 80; i >= 0; i--) {
+      int r = radix[i];
+      if (r > 1) {
+        long c = l0 * r + digit[i];
+        l0 = c & LOW32;
+        c = l1 * r + (c >>> 32);
+        l1 = c & LOW32;
+        c = l2 * r + (c >>> 32);
+        l2 = c & LOW32;
+        l3 = l3 * r + (c >>> 32);
+      }
+    }
+    // 104 bits, most significant byte first (l3 never needs more than 8)
+    out[offset] = (byte) l3;
+    for (int b = 0; b < 4; b++) {
+      int tShift = 24 - b * 8;
+      out[offset + 1 + b] = (byte) (l2 >>> tShift);
+      out[offset + 5 + b] = (byte) (l1 >>> tShift);
+      out[offset + 9 + b] = (byte) (l0 >>> tShift);
+    }
+    return true;
+  }
+
+  /**
+   * Unpacks a completed grid packed by encodeGrid.
+   *
+   * @param in
+   *           array containing the packed grid
+   * @param offset
+   *           position of the start of the packed grid
+   * @param result
+   *           array of 81 values that the grid will be written to
+   * @return false if the packed grid is not valid
+   */
+  public static boolean decodeGrid(byte[] in, int offset, int[] result) {
+    return decodeGrid(in, offset, result, 0, new int[27]);
+  }
+
+  private static boolean decodeGrid(byte[] in, int offset, int[] result,
+                                    int start, int[] used) {
+    if ((offset < 0) || (in.length - offset < GRIDBYTES)) {
+      return false;
+    }
+    long l3 = in[offset] & 0xff, l2 = 0, l1 = 0, l0 = 0;
+    for (int b = 0; b < 4; b++) {
+      l2 = (l2 << 8) | (in[offset + 1 + b] & 0xff);
+      l1 = (l1 << 8) | (in[offset + 5 + b] & 0xff);
+      l0 = (l0 << 8) | (in[offset + 9 + b] & 0xff);
+    }
+    for (int u = 0; u < 27; u++) {
+      used[u] = 0;
+    }
+    for (int i = 0; i < 81; i++) {
+      int[] units = Grid.CELL_UNITS[i];
+      int tLeft = 511 & ~(used[units[0]] | used[units[1]] | used[units[2]]);
+      int r = Point.bitCounts[tLeft];
+      if (r == 0) {
+        return false;
+      }
+      int d = 0;
+      if (r > 1) {
+        long c = l3 % r;
+        l3 /= r;
+        c = (c << 32) | l2;
+        l2 = c / r;
+        c = ((c % r) << 32) | l1;
+        l1 = c / r;
+        c = ((c % r) << 32) | l0;
+        l0 = c / r;
+        d = (int) (c % r);
+      }
+      int tVal = tLeft & -tLeft;
+      for (; d > 0; d--) {
+        tLeft &= ~tVal;
+        tVal = tLeft & -tLeft;
+      }
+      result[start + i] = tVal;
+      used[units[0]] |= tVal;
+      used[units[1]] |= tVal;
+      used[units[2]] |= tVal;
+    }
+    // anything left over means the block was not made by encodeGrid
+    return (l0 | l1 | l2 | l3) == 0;
+  }
+
+  /**
+   * Packs a number of completed grids, stored one after another in an array,
+   * into consecutive GRIDBYTES-byte blocks.
+   *
+   * @param tGrids
+   *           array of bit-packed values, 81 for each grid
+   * @param numGrids
+   *           number of grids to pack
+   * @param out
+   *           array that the packed grids will be written to
+   * @param offset
+   *           position in the output array to start writing
+   * @return number of grids packed before an invalid grid was found
+   */
+  public static int encodeGrids(int[] tGrids, int numGrids, byte[] out,
+                                int offset) {
+    int[] radix = new int[81];
+    int[] digit = new int[81];
+    int[] used = new int[27];
+    for (int p = 0; p < numGrids; p++) {
+      if (!encodeGrid(tGrids, p * 81, out, offset + p * GRIDBYTES, radix,
+          digit, used)) {
+        return p;
+      }
+    }
+    return numGrids;
+  }
+
+  /**
+   * Unpacks a number of completed grids from consecutive GRIDBYTES-byte
+   * blocks.
+   *
+   * @param in
+   *           array containing the packed grids
+   * @param offset
+   *           position of the first packed grid
+   * @param numGrids
+   *           number of grids to unpack
+   * @param result
+   *           array that the grids will be written to, 81 values for each
+   * @return number of grids unpacked before an invalid block was found
+   */
+  public static int decodeGrids(byte[] in, int offset, int numGrids,
+                                int[] result) {
+    int[] used = new int[27];
+    for (int p = 0; p < numGrids; p++) {
+      if (!decodeGrid(in, offset + p * GRIDBYTES, result, p * 81, used)) {
+        return p;
+      }
+    }
+    return numGrids;
+  }
+}
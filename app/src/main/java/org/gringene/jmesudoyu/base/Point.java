@@ -42,6 +42,10 @@ public class Point {
 
     private int value;
 
+    private Grid grid;
+
+    private int index;
+
     boolean locked;
 
     boolean error;
@@ -51,23 +55,70 @@ public class Point {
      * candidates and the org.gringene.jmesudoyu.base.Point is unlocked.
      */
     public Point() {
-        if (Point.bitCounts == null) {
-            Point.bitCounts = new byte[512];
-            /* see http://www.kerneltrap.org/node/60273 for an O(n) version */
-            for (int i = 0; i < 512; i++) {
-                byte tCount = 0;
-                for (int tn = i; tn != 0; tn >>>= 1) {
-                    tCount += (tn & 1);
-                }
-                Point.bitCounts[i] = tCount;
-            }
-        }
         value = 511;
         locked = false;
         error = false;
         row = null;
         column = null;
         box = null;
+        grid = null;
+    }
+
+    /**
+     * Creates a Point that is a view onto one cell of a Grid. The candidate
+     * numbers for this Point are stored in (and read from) the Grid, rather
+     * than in the Point itself.
+     * 
+     * @param tGrid
+     *            Grid that holds the candidate numbers
+     * @param tIndex
+     *            index of the cell within the Grid
+     */
+    public Point(Grid tGrid, int tIndex) {
+        this();
+        grid = tGrid;
+        index = tIndex;
+    }
+
+    static {
+        Point.bitCounts = new byte[512];
+        /* see http://www.kerneltrap.org/node/60273 for an O(n) version */
+        for (int i = 0; i < 512; i++) {
+            byte tCount = 0;
+            for (int tn = i; tn != 0; tn >>>= 1) {
+                tCount += (tn & 1);
+            }
+            Point.bitCounts[i] = tCount;
+        }
+    }
+
+    /**
+     * Retrieves the bit-packed candidate numbers, either from the Grid this
+     * Point is a view onto, or from the Point itself.
+     */
+    private int get() {
+        return (grid != null) ? grid.cells[index] : value;
+    }
+
+    /**
+     * Stores the bit-packed candidate numbers, either into the Grid this
+     * Point is a view onto, or into the Point itself.
+     */
+    private void put(int tVal) {
+        if (grid != null) {
+            grid.put(index, tVal);
+        } else {
+            value = tVal;
+        }
+    }
+
+    /**
+     * Retrieves the location of this Point within its Grid.
+     * 
+     * @return the Grid cell index of this Point
+     */
+    public int getIndex() {
+        return index;
     }
 
     /**
@@ -79,7 +130,7 @@ public class Point {
      * @return true if the bit-packed representations are equal
      */
     public boolean equals(Point p) {
-        return (this.value == p.value);
+        return (this.get() == p.get());
     }
 
     /**
@@ -91,7 +142,7 @@ public class Point {
      * @return true if the bit-packed representations are equal
      */
     public boolean equals(int tBits) {
-        return (this.value == tBits);
+        return (this.get() == tBits);
     }
 
     /**
@@ -103,12 +154,13 @@ public class Point {
      *         this org.gringene.jmesudoyu.base.Point
      */
     public int countBits() {
-        if (value < 512) {
-            return Point.bitCounts[value];
+        int tVal = get();
+        if (tVal < 512) {
+            return Point.bitCounts[tVal];
         } else {
             // old version
             int tCount = 0;
-            for (int tn = value; tn != 0; tn >>>= 1) {
+            for (int tn = tVal; tn != 0; tn >>>= 1) {
                 tCount += (tn & 1);
             }
             return tCount;
@@ -148,7 +200,7 @@ public class Point {
      */
     private int highBit() {
         int pCount = 0;
-        for (int tn = value; tn != 0; tn >>>= 1, pCount++)
+        for (int tn = get(); tn != 0; tn >>>= 1, pCount++)
             ;
         return pCount - 1;
     }
@@ -288,7 +340,7 @@ public class Point {
      *         org.gringene.jmesudoyu.base.Point
      */
     public int getValue() {
-        return value;
+        return get();
     }
 
     /**
@@ -338,7 +390,7 @@ public class Point {
      * clearing flags for this org.gringene.jmesudoyu.base.Point.
      */
     public void clearValue() {
-        value = 511;
+        put(511);
         locked = false;
         error = false;
         this.updateChanged();
@@ -403,8 +455,9 @@ public class Point {
             return 0;
         }
         int bCount = 0;
+        int pVal = get();
         for (int tVal = 256; tVal != 0; tVal >>>= 1)
-            if ((value & tVal) != 0)
+            if ((pVal & tVal) != 0)
                 result[bCount++] = tVal;
         return bCount;
     }
@@ -417,7 +470,7 @@ public class Point {
      *            org.gringene.jmesudoyu.base.Point containing values to copy onto this org.gringene.jmesudoyu.base.Point
      */
     public void setBits(Point tPoint) {
-        this.value = tPoint.value;
+        this.put(tPoint.get());
         this.locked = tPoint.locked;
         this.updateChanged();
     }
@@ -432,7 +485,7 @@ public class Point {
      *            represent
      */
     public void setExact(int tVal) {
-        value = tVal;
+        put(tVal);
         this.updateChanged();
     }
 
@@ -446,7 +499,7 @@ public class Point {
      *            represent
      */
     public void setValue(int tVal) {
-        value = 1 << tVal;
+        put(1 << tVal);
         this.updateChanged();
     }
 
@@ -459,7 +512,7 @@ public class Point {
      *            in this org.gringene.jmesudoyu.base.Point
      */
     public void setBits(int tVal) {
-        value = value & tVal;
+        put(get() & tVal);
         this.updateChanged();
     }
 
@@ -470,9 +523,10 @@ public class Point {
      *            number to remove from candidates
      */
     public boolean remValue(int tVal) {
-        boolean retVal = ((value & (1 << tVal)) != 0);
+        int pVal = get();
+        boolean retVal = ((pVal & (1 << tVal)) != 0);
         if (retVal) {
-            value = value & (511 - (1 << tVal));
+            put(pVal & (511 - (1 << tVal)));
             this.updateChanged();
         }
         return retVal;
@@ -486,7 +540,7 @@ public class Point {
      *            number to flip candidate status for
      */
     public void flipValue(int tVal) {
-        value = value ^ (1 << tVal);
+        put(get() ^ (1 << tVal));
         this.updateChanged();
     }
 
@@ -498,9 +552,10 @@ public class Point {
      *            numbers (as bit packed integer) to remove from candidates
      */
     public boolean remBits(int tVal) {
-        boolean retVal = ((value & tVal) != 0);
+        int pVal = get();
+        boolean retVal = ((pVal & tVal) != 0);
         if (retVal) {
-            value = value & (511 - tVal);
+            put(pVal & (511 - tVal));
             this.updateChanged();
         }
         return retVal;
@@ -562,14 +617,15 @@ public class Point {
      */
     public String toFileBitsString() {
         String outString = "";
-        if (value != 511) {
+        int pVal = get();
+        if (pVal != 511) {
             for (int i = 0; i < 9; i++) {
-                if ((value & (1 << i)) != 0) {
+                if ((pVal & (1 << i)) != 0) {
                     outString = outString + Integer.toString(i + 1);
                 }
             }
         }
-        if (value == 0) {
+        if (pVal == 0) {
             outString = "X";
         }
         if (this.locked) {
@@ -593,7 +649,7 @@ public class Point {
             tString = tString.substring(1, tString.length() - 1);
         }
         if (!tString.equals("")) {
-            this.value = 0;
+            this.put(0);
             for (int i = 0; i < tString.length(); i++) {
                 int candidate = Character.digit(tString.charAt(i), 10)
                         - Character.digit('0', 10) - 1;
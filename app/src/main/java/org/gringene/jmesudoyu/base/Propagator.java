@@ -0,0 +1,438 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Event-driven logic engine for a Grid. Rather than sweeping the whole board
+ * and starting again from the simplest logic whenever something changes,
+ * this keeps work queues of the cells and units that have changed. When a
+ * candidate is removed, only that cell and the units containing it are
+ * queued, and each logic technique is only run on the targets queued for
+ * it. The cheapest queued work is always done first, as in the sweep in
+ * Board.applyLogic. A cell running out of candidates stops the propagation
+ * immediately.
+ * <p>
+ * With levels 1 and 2 this reaches the same grid as the sweep. The higher
+ * levels can make their deductions in a different order, and on a board
+ * with more than one solution they do not always stop at the same grid
+ * (both grids are still valid for the board); when the logic completes a
+ * board with a unique solution, both engines end with that solution.
+ * </p>
+ * <p>
+ * The techniques are pluggable (see LogicTechnique), and are kept in order
+ * of cost. The default techniques are the logic levels used by
+ * Board.applyLogic:
+ * </p>
+ * <ol>
+ * <li>single candidates removed from the rest of their row, column and box</li>
+ * <li>numbers unique to one cell of a unit (Line.setUnique)</li>
+ * <li>identical disjoint subsets (Line.remDisjoint)</li>
+ * <li>box/line complements (Line.complement)</li>
+ * <li>naked and hidden subsets (Line.remSubsets)</li>
+ * <li>X-Wing, Swordfish and Jellyfish (FishTechnique)</li>
+ * </ol>
+ * <p>
+ * For each technique, the number of invocations, successful invocations
+ * (hits) and candidates eliminated are recorded. If profiling is switched
+ * on, the time spent in each technique is recorded as well.
+ * </p>
+ *
+ * @author gringer
+ * @see Board#applyLogic(int, boolean)
+ * @see LogicTechnique
+ */
+public class Propagator {
+  private final Grid grid;
+
+  private LogicTechnique[] techniques = new LogicTechnique[0];
+
+  private int[] scopes = new int[0];
+
+  private int[] levels = new int[0];
+
+  /* one work queue for each technique */
+  private int[][] queue = new int[0][];
+
+  private boolean[][] queued = new boolean[0][];
+
+  private int[] queueHead = new int[0];
+
+  private int[] queueCount = new int[0];
+
+  private long[] invocations = new long[0];
+
+  private long[] hits = new long[0];
+
+  private long[] eliminations = new long[0];
+
+  private long[] nanoTimes = new long[0];
+
+  private int current = -1;
+
+  private boolean profiling;
+
+  private boolean contradiction;
+
+  /**
+   * Creates a propagation engine that works on a given Grid, using the
+   * default set of techniques.
+   *
+   * @param tGrid
+   *           Grid that logic will be applied to
+   */
+  public Propagator(Grid tGrid) {
+    grid = tGrid;
+    register(new SingleTechnique());
+    register(new UniqueTechnique());
+    register(new DisjointTechnique());
+    register(new ComplementTechnique());
+    register(new SubsetTechnique());
+    register(new FishTechnique());
+  }
+
+  /**
+   * Adds a logic technique to this engine. Techniques are kept sorted by
+   * cost, with techniques of equal cost run in the order they were added.
+   * Any work that is currently queued is discarded.
+   *
+   * @param tTechnique
+   *           technique to add
+   */
+  public void register(LogicTechnique tTechnique) {
+    clear();
+    int num = techniques.length;
+    int pos = num;
+    while ((pos > 0) && (techniques[pos - 1].getCost() > tTechnique.getCost())) {
+      pos--;
+    }
+    LogicTechnique[] tTechniques = new LogicTechnique[num + 1];
+    System.arraycopy(techniques, 0, tTechniques, 0, pos);
+    System.arraycopy(techniques, pos, tTechniques, pos + 1, num - pos);
+    tTechniques[pos] = tTechnique;
+    techniques = tTechniques;
+    scopes = new int[num + 1];
+    levels = new int[num + 1];
+    queue = new int[num + 1][];
+    queued = new boolean[num + 1][];
+    queueHead = new int[num + 1];
+    queueCount = new int[num + 1];
+    for (int t = 0; t <= num; t++) {
+      scopes[t] = techniques[t].getScope();
+      levels[t] = techniques[t].getLevel();
+      int tSize = 27;
+      if (scopes[t] == LogicTechnique.SCOPE_SOLVED) {
+        tSize = 81;
+      } else if (scopes[t] == LogicTechnique.SCOPE_DIGIT) {
+        tSize = 9;
+      }
+      queue[t] = new int[tSize];
+      queued[t] = new boolean[tSize];
+    }
+    invocations = new long[num + 1];
+    hits = new long[num + 1];
+    eliminations = new long[num + 1];
+    nanoTimes = new long[num + 1];
+  }
+
+  /**
+   * Retrieves the Grid that this engine works on.
+   *
+   * @return the Grid for this engine
+   */
+  public Grid getGrid() {
+    return grid;
+  }
+
+  /**
+   * Indicates whether a cell has run out of candidates during the current
+   * (or most recent) run.
+   *
+   * @return true if a contradiction has been found
+   */
+  public boolean hasContradiction() {
+    return contradiction;
+  }
+
+  /**
+   * Switches timing of each technique on or off. Timing adds a small cost to
+   * every technique invocation, so it is off by default.
+   *
+   * @param tProfiling
+   *           true if the time spent in each technique should be recorded
+   */
+  public void setProfiling(boolean tProfiling) {
+    profiling = tProfiling;
+  }
+
+  /**
+   * Queues every cell and every unit, so that the next run examines the
+   * whole board. This is needed when the grid has been changed without
+   * going through the propagator.
+   */
+  public void markAll() {
+    for (int t = 0; t < techniques.length; t++) {
+      if (scopes[t] == LogicTechnique.SCOPE_SOLVED) {
+        for (int i = 0; i < 81; i++) {
+          int tVal = grid.cells[i];
+          if ((tVal != 0) && ((tVal & (tVal - 1)) == 0)) {
+            enqueue(t, i);
+          }
+        }
+      } else if (scopes[t] == LogicTechnique.SCOPE_DIGIT) {
+        for (int num = 0; num < 9; num++) {
+          enqueue(t, num);
+        }
+      } else {
+        for (int u = (scopes[t] == LogicTechnique.SCOPE_BOX) ? 18 : 0;
+             u < 27; u++) {
+          enqueue(t, u);
+        }
+      }
+    }
+  }
+
+  /**
+   * Queues a single cell (and the units it belongs to) for examination, after
+   * that cell has been changed outside the propagator.
+   *
+   * @param pos
+   *           index of the changed cell
+   */
+  public void markCell(int pos) {
+    cellChanged(pos, 511);
+  }
+
+  /**
+   * Clears all queued work without doing it.
+   */
+  public void clear() {
+    for (int t = 0; t < techniques.length; t++) {
+      while (queueCount[t] > 0) {
+        queued[t][poll(t)] = false;
+      }
+    }
+  }
+
+  /**
+   * Applies logic up to a given level until the queues are empty, or a
+   * contradiction is found. The number of successful applications of each
+   * level is added to an array of counts, indexed by (level - 1).
+   *
+   * @param logLevel
+   *           maximum logic level to use
+   * @param opCounts
+   *           array of operation counts to add to (may be null)
+   * @return false if a contradiction was found
+   */
+  public boolean run(int logLevel, int[] opCounts) {
+    contradiction = false;
+    while (!contradiction) {
+      int t = 0;
+      while ((t < techniques.length)
+          && ((queueCount[t] == 0) || (levels[t] > logLevel))) {
+        t++;
+      }
+      if (t == techniques.length) {
+        break;
+      }
+      int target = poll(t);
+      queued[t][target] = false;
+      current = t;
+      long startTime = profiling ? System.nanoTime() : 0;
+      boolean changed = techniques[t].apply(this, target);
+      if (profiling) {
+        nanoTimes[t] += System.nanoTime() - startTime;
+      }
+      current = -1;
+      invocations[t]++;
+      if (changed) {
+        hits[t]++;
+        if ((opCounts != null) && (levels[t] <= opCounts.length)) {
+          opCounts[levels[t] - 1]++;
+        }
+      }
+    }
+    if (contradiction) {
+      clear();
+    }
+    return !contradiction;
+  }
+
+  /**
+   * Removes candidates from a cell, queueing any work that this causes. This
+   * is the method that techniques use to make their deductions.
+   *
+   * @param pos
+   *           index of the cell
+   * @param tBits
+   *           bit-packed candidates to remove
+   * @return true if any candidates were removed
+   */
+  public boolean remove(int pos, int tBits) {
+    int old = grid.cells[pos];
+    if ((old & tBits) == 0) {
+      return false;
+    }
+    grid.put(pos, old & ~tBits);
+    if (current >= 0) {
+      eliminations[current] += Point.countBits(old & tBits);
+    }
+    cellChanged(pos, old & tBits);
+    return true;
+  }
+
+  private void cellChanged(int pos, int tBits) {
+    int tVal = grid.cells[pos];
+    if (tVal == 0) {
+      contradiction = true;
+      return;
+    }
+    boolean solved = ((tVal & (tVal - 1)) == 0);
+    int[] units = Grid.CELL_UNITS[pos];
+    for (int t = 0; t < techniques.length; t++) {
+      int tScope = scopes[t];
+      if (tScope == LogicTechnique.SCOPE_SOLVED) {
+        if (solved) {
+          enqueue(t, pos);
+        }
+      } else if (tScope == LogicTechnique.SCOPE_BOX) {
+        enqueue(t, units[2]);
+      } else if (tScope == LogicTechnique.SCOPE_DIGIT) {
+        for (int num = 0; num < 9; num++) {
+          if ((tBits & (1 << num)) != 0) {
+            enqueue(t, num);
+          }
+        }
+      } else {
+        enqueue(t, units[0]);
+        enqueue(t, units[1]);
+        enqueue(t, units[2]);
+      }
+    }
+  }
+
+  private void enqueue(int t, int target) {
+    if (!queued[t][target]) {
+      queued[t][target] = true;
+      int[] tQueue = queue[t];
+      tQueue[(queueHead[t] + queueCount[t]++) % tQueue.length] = target;
+    }
+  }
+
+  private int poll(int t) {
+    int[] tQueue = queue[t];
+    int target = tQueue[queueHead[t]];
+    queueHead[t] = (queueHead[t] + 1) % tQueue.length;
+    queueCount[t]--;
+    return target;
+  }
+
+  /**
+   * Retrieves the number of registered techniques.
+   *
+   * @return the number of techniques
+   */
+  public int getNumTechniques() {
+    return techniques.length;
+  }
+
+  /**
+   * Retrieves a registered technique, in order of cost.
+   *
+   * @param t
+   *           index of the technique
+   * @return the technique at that index
+   */
+  public LogicTechnique getTechnique(int t) {
+    return techniques[t];
+  }
+
+  /**
+   * Retrieves the number of times a technique has been run.
+   *
+   * @param t
+   *           index of the technique
+   * @return number of invocations
+   */
+  public long getInvocations(int t) {
+    return invocations[t];
+  }
+
+  /**
+   * Retrieves the number of times a technique has removed candidates.
+   *
+   * @param t
+   *           index of the technique
+   * @return number of successful invocations
+   */
+  public long getHits(int t) {
+    return hits[t];
+  }
+
+  /**
+   * Retrieves the number of candidates removed by a technique.
+   *
+   * @param t
+   *           index of the technique
+   * @return number of candidates removed
+   */
+  public long getEliminations(int t) {
+    return eliminations[t];
+  }
+
+  /**
+   * Retrieves the time spent in a technique while profiling was switched on.
+   *
+   * @param t
+   *           index of the technique
+   * @return time spent in the technique, in nanoseconds
+   */
+  public long getNanoTime(int t) {
+    return nanoTimes[t];
+  }
+
+  /**
+   * Resets the statistics for all techniques.
+   */
+  public void resetStats() {
+    for (int t = 0; t < techniques.length; t++) {
+      invocations[t] = 0;
+      hits[t] = 0;
+      eliminations[t] = 0;
+      nanoTimes[t] = 0;
+    }
+  }
+
+  /**
+   * Produces a human-readable table of the statistics for each technique.
+   *
+   * @return one line per technique: name, level, invocations, hits,
+   *         eliminations and time (in microseconds)
+   */
+  public String statsString() {
+    String retVal = "";
+    for (int t = 0; t < techniques.length; t++) {
+      retVal = retVal + techniques[t].getName() + " (" + levels[t] + "): "
+          + invocations[t] + " runs, " + hits[t] + " hits, "
+          + eliminations[t] + " removed, " + (nanoTimes[t] / 1000) + "us\n";
+    }
+    return retVal;
+  }
+}
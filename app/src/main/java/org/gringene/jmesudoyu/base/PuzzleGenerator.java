@@ -0,0 +1,443 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates puzzles on several threads at once. Each worker thread has its
+ * own Board, and repeatedly runs Board.makeSolution and Board.makeProblem
+ * until enough puzzles within a range of difficulty have been made. There
+ * are two modes of use:
+ * <ul>
+ * <li>generate(...) returns the first acceptable puzzle made by any worker,
+ * and stops the other workers as soon as it is found. This is intended for
+ * interactive puzzle creation.</li>
+ * <li>generateBatch(...) keeps every worker busy until a given number of
+ * puzzles have been made, which is intended for building up collections of
+ * puzzles.</li>
+ * </ul>
+ * <p>
+ * Generation can be stopped from another thread with cancel(), which
+ * discards unfinished puzzles, or accept(), which keeps any puzzle that a
+ * worker was part-way through reducing (these are still uniquely solvable,
+ * but may have more clues than usual). A cancel or accept made before
+ * generation starts applies to the next generation, so a caller that starts
+ * generation on another thread should call reset() before starting that
+ * thread, rather than risk the request being lost.
+ * </p>
+ * <p>
+ * Each worker gets its own random number generator, split from a seed for
+ * the whole generator, and each attempt uses a fresh seed from the worker's
+ * generator. That seed is recorded with the puzzle, so any puzzle can be
+ * made again with makePuzzle(Board, long, ...). With a single worker, the
+ * whole stream of puzzles is reproducible from the generator seed.
+ * </p>
+ *
+ * @author gringer
+ * @see Board#makeSolution(GlobalVar)
+ * @see Board#makeProblem(int, boolean, GlobalVar, GlobalVar)
+ */
+public class PuzzleGenerator {
+  private final int numWorkers;
+
+  private final Board[] boards;
+
+  private final ExecutorService pool;
+
+  private final AtomicInteger produced = new AtomicInteger();
+
+  private SplitMix64 seeder = new SplitMix64();
+
+  private volatile boolean stopped;
+
+  private volatile boolean cancelled;
+
+  private volatile boolean accepting;
+
+  /**
+   * Creates a generator with one worker for each available processor.
+   */
+  public PuzzleGenerator() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a generator with a given number of workers.
+   *
+   * @param tWorkers
+   *           number of worker threads (and Boards) to use
+   */
+  public PuzzleGenerator(int tWorkers) {
+    this(tWorkers, Thread.NORM_PRIORITY);
+  }
+
+  /**
+   * Creates a generator with a given number of workers, running at a given
+   * thread priority. A low priority is useful for generating puzzles in the
+   * background.
+   *
+   * @param tWorkers
+   *           number of worker threads (and Boards) to use
+   * @param tPriority
+   *           priority of the worker threads
+   */
+  public PuzzleGenerator(int tWorkers, final int tPriority) {
+    numWorkers = Math.max(1, tWorkers);
+    boards = new Board[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      boards[i] = new Board();
+    }
+    pool = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "PuzzleGenerator");
+        t.setDaemon(true);
+        t.setPriority(tPriority);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Sets the seed that the random number generators for the workers are
+   * split from.
+   *
+   * @param tSeed
+   *           seed for the generator
+   */
+  public synchronized void setSeed(long tSeed) {
+    seeder = new SplitMix64(tSeed);
+  }
+
+  /**
+   * Sets the strategy that the workers use to remove clues.
+   *
+   * @param tMode
+   *           Board.REMOVE_RANDOM, REMOVE_ORDERED or REMOVE_BACKTRACK
+   * @param tDiscrepancies
+   *           largest number of departures from the ordering to search
+   * @see Board#setRemovalMode(int, int)
+   */
+  public synchronized void setRemovalMode(int tMode, int tDiscrepancies) {
+    for (int i = 0; i < numWorkers; i++) {
+      boards[i].setRemovalMode(tMode, tDiscrepancies);
+    }
+  }
+
+  /**
+   * Sets a grid factory for the workers to make completed grids with, or
+   * null to build each grid with Board.makeSolution(GlobalVar) (the
+   * default). A factory is quicker, but its grids are all transformations of
+   * a few seed grids, so it gives less variety.
+   *
+   * @param tFactory
+   *           Factory used to make completed grids
+   * @see Board#setGridFactory(GridFactory)
+   */
+  public synchronized void setGridFactory(GridFactory tFactory) {
+    for (int i = 0; i < numWorkers; i++) {
+      boards[i].setGridFactory(tFactory);
+    }
+  }
+
+  /**
+   * Makes a puzzle on a board from a given seed. The board is cleared, and a
+   * solution and puzzle are made from the seed, so the same seed always gives
+   * the same puzzle (unless the time limit is reached). The solution is made
+   * with the board's grid factory, if it has one.
+   *
+   * @param tBoard
+   *           Board to make the puzzle on
+   * @param tSeed
+   *           seed for the random choices
+   * @param maxTime
+   *           Maximum allowed time for the problem generation step
+   * @param useSymmetry
+   *           whether the puzzle should be symmetrical
+   * @param ta
+   *           Monitor variable for the number of placements and removals
+   * @param tt
+   *           Monitor variable for the time taken to remove numbers
+   * @return true if a solution was made, and reduced to a puzzle
+   */
+  public static boolean makePuzzle(Board tBoard, long tSeed, int maxTime,
+                                   boolean useSymmetry, GlobalVar ta,
+                                   GlobalVar tt) {
+    tBoard.reset(false);
+    tBoard.setSeed(tSeed);
+    if (tBoard.gridFactory != null) {
+      tBoard.makeSolution(tBoard.gridFactory, ta);
+    } else {
+      tBoard.makeSolution(ta);
+    }
+    if (!tBoard.doCreate || (tBoard.signature() != Point.SINGLE)) {
+      return false;
+    }
+    tBoard.makeProblem(maxTime, useSymmetry, ta, tt);
+    return true;
+  }
+
+  /**
+   * Retrieves the number of worker threads used by this generator.
+   *
+   * @return number of workers
+   */
+  public int getNumWorkers() {
+    return numWorkers;
+  }
+
+  /**
+   * Generates a single puzzle, returning the first acceptable puzzle made by
+   * any of the workers. The remaining workers are stopped once a puzzle has
+   * been found.
+   *
+   * @param minDifficulty
+   *           lowest acceptable difficulty rating (see SolveReport)
+   * @param maxDifficulty
+   *           highest acceptable difficulty rating
+   * @param maxTime
+   *           maximum time to spend, in milliseconds
+   * @param useSymmetry
+   *           whether puzzles should be symmetrical
+   * @param ta
+   *           Monitor variable for the number of puzzles attempted (may be
+   *           null)
+   * @param tt
+   *           Monitor variable for the total time taken (may be null)
+   * @return the puzzle, or null if generation was cancelled or ran out of
+   *         time
+   */
+  public GeneratedPuzzle generate(int minDifficulty, int maxDifficulty,
+                                  int maxTime, boolean useSymmetry,
+                                  GlobalVar ta, GlobalVar tt) {
+    GeneratedPuzzle[] results = new GeneratedPuzzle[1];
+    if (generateBatch(1, minDifficulty, maxDifficulty, maxTime, useSymmetry,
+        results, ta, tt) == 0) {
+      return null;
+    }
+    return results[0];
+  }
+
+  /**
+   * Generates a number of puzzles, using all of the workers until enough
+   * acceptable puzzles have been made.
+   *
+   * @param count
+   *           number of puzzles to make
+   * @param minDifficulty
+   *           lowest acceptable difficulty rating (see SolveReport)
+   * @param maxDifficulty
+   *           highest acceptable difficulty rating
+   * @param maxTime
+   *           maximum time to spend, in milliseconds
+   * @param useSymmetry
+   *           whether puzzles should be symmetrical
+   * @param results
+   *           array that will be filled with the puzzles
+   * @param ta
+   *           Monitor variable for the number of puzzles attempted (may be
+   *           null)
+   * @param tt
+   *           Monitor variable for the total time taken (may be null)
+   * @return the number of puzzles made
+   */
+  public synchronized int generateBatch(int count, int minDifficulty,
+                                        int maxDifficulty, int maxTime,
+                                        boolean useSymmetry,
+                                        GeneratedPuzzle[] results,
+                                        GlobalVar ta, GlobalVar tt) {
+    count = Math.min(count, results.length);
+    long inTime = System.currentTimeMillis();
+    long endTime = inTime + maxTime;
+    produced.set(0);
+    AtomicInteger attempts = new AtomicInteger();
+    Future<?>[] futures = new Future<?>[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      futures[i] = pool.submit(new Worker(boards[i], seeder.split(), count,
+          minDifficulty, maxDifficulty, endTime, useSymmetry, results,
+          attempts));
+    }
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (int i = 0; i < numWorkers; i++) {
+        running = running || !futures[i].isDone();
+      }
+      if ((produced.get() >= count)
+          || (System.currentTimeMillis() >= endTime)) {
+        stopped = true;
+      }
+      if (stopped) {
+        stopBoards();
+      }
+      if (ta != null) {
+        ta.setValue(attempts.get());
+      }
+      if (tt != null) {
+        tt.setValue((int) (System.currentTimeMillis() - inTime));
+      }
+      if (running) {
+        try {
+          Thread.sleep((long) 20);
+        } catch (InterruptedException e) {
+          cancel();
+        }
+      }
+    }
+    for (int i = 0; i < numWorkers; i++) {
+      try {
+        futures[i].get();
+      } catch (Exception e) {
+        System.out.println("Puzzle generation failed: " + e);
+      }
+    }
+    int retVal = cancelled ? 0 : Math.min(count, produced.get());
+    reset();
+    return retVal;
+  }
+
+  /**
+   * Clears any cancel or accept, ready for the next generation. This is done
+   * when each generation finishes.
+   */
+  public void reset() {
+    stopped = false;
+    cancelled = false;
+    accepting = false;
+  }
+
+  /**
+   * Stops generation, discarding any puzzles that have not been finished.
+   * The generating method will return shortly afterwards (or straight away,
+   * if it has not started yet).
+   */
+  public void cancel() {
+    cancelled = true;
+    stopped = true;
+    stopBoards();
+  }
+
+  /**
+   * Stops generation, keeping any puzzle that a worker was part-way through
+   * reducing, regardless of its difficulty. The generating method will return
+   * shortly afterwards.
+   */
+  public void accept() {
+    accepting = true;
+    stopped = true;
+    stopBoards();
+  }
+
+  /**
+   * Stops the worker threads. The generator can't be used after this.
+   */
+  public void shutdown() {
+    cancel();
+    pool.shutdown();
+  }
+
+  /**
+   * Signals each board to stop creating, without waiting for it to stop.
+   */
+  private void stopBoards() {
+    for (int i = 0; i < numWorkers; i++) {
+      boards[i].doCreate = false;
+    }
+  }
+
+  /**
+   * Makes puzzles on one board until enough have been made, or generation is
+   * stopped.
+   */
+  private class Worker implements Runnable {
+    private final Board board;
+
+    private final SplitMix64 rGen;
+
+    private final int count, minDifficulty, maxDifficulty;
+
+    private final long endTime;
+
+    private final boolean useSymmetry;
+
+    private final GeneratedPuzzle[] results;
+
+    private final AtomicInteger attempts;
+
+    Worker(Board tBoard, SplitMix64 tRandom, int tCount, int tMin, int tMax,
+           long tEnd, boolean tSymmetry, GeneratedPuzzle[] tResults,
+           AtomicInteger tAttempts) {
+      board = tBoard;
+      rGen = tRandom;
+      count = tCount;
+      minDifficulty = tMin;
+      maxDifficulty = tMax;
+      endTime = tEnd;
+      useSymmetry = tSymmetry;
+      results = tResults;
+      attempts = tAttempts;
+    }
+
+    public void run() {
+      GlobalVar removed = new GlobalVar();
+      GlobalVar taken = new GlobalVar();
+      SolveReport tReport = new SolveReport();
+      int[] tCells = new int[81];
+      while (!stopped && (produced.get() < count)) {
+        long timeLeft = endTime - System.currentTimeMillis();
+        if (timeLeft <= 0) {
+          break;
+        }
+        attempts.incrementAndGet();
+        long tSeed = rGen.nextLong();
+        if (stopped || !makePuzzle(board, tSeed, (int) timeLeft, useSymmetry,
+            removed, taken)) {
+          continue;
+        }
+        if (cancelled) {
+          break;
+        }
+        board.staticSave(tCells);
+        int tMark = board.mark();
+        board.applyLogic(tReport);
+        board.rollback(tMark);
+        board.release(tMark);
+        int tDifficulty = tReport.getDifficulty();
+        if ((tReport.getSignature() == Point.SINGLE)
+            && (accepting || ((tDifficulty >= minDifficulty)
+            && (tDifficulty <= maxDifficulty)))) {
+          int slot = produced.getAndIncrement();
+          if (slot < count) {
+            results[slot] = new GeneratedPuzzle(tCells, tReport);
+            results[slot].seed = tSeed;
+          }
+          if (slot >= count - 1) {
+            stopped = true;
+            stopBoards();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A store of ready-made puzzles, so that a new puzzle can be handed out
+ * straight away rather than generated while the user waits. A number of
+ * puzzles is kept for each difficulty rating (band), and a low-priority
+ * background thread tops up any band that is below its capacity. The pool is
+ * saved to a file whenever it changes (from the background thread), and
+ * reloaded when it is started, so that puzzles made in one session can be
+ * used in the next.
+ * <p>
+ * Each band is a ring buffer, so taking a puzzle does not depend on the size
+ * of the pool. If the pool has nothing suitable, take returns null, and the
+ * caller should generate a puzzle directly.
+ * </p>
+ *
+ * @author gringer
+ * @see PuzzleGenerator
+ * @see SolveReport#getDifficulty()
+ */
+public class PuzzlePool implements Runnable {
+  /** Number of difficulty bands (one for each SolveReport rating) */
+  public static final int NUMBANDS = SolveReport.DIFFICULTY_NAMES.length;
+
+  /** Default number of puzzles to keep for each band */
+  public static final int[] DEFAULT_CAPACITY = { 2, 3, 2, 2, 0 };
+
+  private static final int FILEVERSION = 3;
+
+  private final File storeFile;
+
+  private final GeneratedPuzzle[][] puzzles = new GeneratedPuzzle[NUMBANDS][];
+
+  private final int[] head = new int[NUMBANDS];
+
+  private final int[] count = new int[NUMBANDS];
+
+  private final PuzzleGenerator generator;
+
+  /* the thread topping up the pool (an older one stops when replaced) */
+  private Thread refiller;
+
+  private boolean loaded;
+
+  private boolean dirty;
+
+  /**
+   * Creates a pool with the default capacity for each band.
+   *
+   * @param tFile
+   *           file that the pool is saved to (may be null, for a pool that is
+   *           not saved)
+   */
+  public PuzzlePool(File tFile) {
+    this(tFile, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a pool with a given capacity for each band.
+   *
+   * @param tFile
+   *           file that the pool is saved to (may be null, for a pool that is
+   *           not saved)
+   * @param tCapacity
+   *           number of puzzles to keep for each band
+   */
+  public PuzzlePool(File tFile, int[] tCapacity) {
+    storeFile = tFile;
+    for (int b = 0; b < NUMBANDS; b++) {
+      puzzles[b] = new GeneratedPuzzle[(b < tCapacity.length) ?
+          Math.max(0, tCapacity[b]) : 0];
+    }
+    generator = new PuzzleGenerator(1, Thread.MIN_PRIORITY);
+  }
+
+  /**
+   * Changes the number of puzzles kept for a band. If the band holds more
+   * puzzles than the new capacity, the oldest puzzles are dropped.
+   *
+   * @param band
+   *           difficulty band
+   * @param tCapacity
+   *           number of puzzles to keep
+   */
+  public synchronized void setCapacity(int band, int tCapacity) {
+    GeneratedPuzzle[] tPuzzles = new GeneratedPuzzle[Math.max(0, tCapacity)];
+    int tCount = Math.min(count[band], tPuzzles.length);
+    for (int i = 0; i < tCount; i++) {
+      tPuzzles[i] = puzzles[band][(head[band] + count[band] - tCount + i)
+          % puzzles[band].length];
+    }
+    puzzles[band] = tPuzzles;
+    head[band] = 0;
+    count[band] = tCount;
+    dirty = true;
+    notifyAll();
+  }
+
+  /**
+   * Retrieves the number of puzzles currently held for a band.
+   *
+   * @param band
+   *           difficulty band
+   * @return number of puzzles ready in that band
+   */
+  public synchronized int size(int band) {
+    return count[band];
+  }
+
+  /**
+   * Takes a puzzle from a band, leaving the background thread to replace it.
+   *
+   * @param band
+   *           difficulty band
+   * @return a puzzle, or null if the band is empty
+   */
+  public synchronized GeneratedPuzzle take(int band) {
+    if (count[band] == 0) {
+      return null;
+    }
+    GeneratedPuzzle retVal = puzzles[band][head[band]];
+    puzzles[band][head[band]] = null;
+    head[band] = (head[band] + 1) % puzzles[band].length;
+    count[band]--;
+    dirty = true;
+    notifyAll();
+    return retVal;
+  }
+
+  /**
+   * Takes a puzzle from the fullest band within a range of difficulty, so
+   * that puzzles are handed out roughly in proportion to the band capacities.
+   *
+   * @param minBand
+   *           lowest acceptable difficulty band
+   * @param maxBand
+   *           highest acceptable difficulty band
+   * @return a puzzle, or null if every band in the range is empty
+   */
+  public synchronized GeneratedPuzzle take(int minBand, int maxBand) {
+    int best = -1;
+    for (int b = Math.max(0, minBand); b <= Math.min(maxBand, NUMBANDS - 1);
+         b++) {
+      if ((count[b] > 0) && ((best < 0) || (count[b] > count[best]))) {
+        best = b;
+      }
+    }
+    return (best < 0) ? null : take(best);
+  }
+
+  /**
+   * Adds a puzzle to the band for its difficulty, if that band has room.
+   *
+   * @param tPuzzle
+   *           puzzle to add
+   * @return true if the puzzle was added
+   */
+  public synchronized boolean offer(GeneratedPuzzle tPuzzle) {
+    int band = tPuzzle.getDifficulty();
+    if ((band < 0) || (band >= NUMBANDS)
+        || (count[band] >= puzzles[band].length)) {
+      return false;
+    }
+    puzzles[band][(head[band] + count[band]) % puzzles[band].length] = tPuzzle;
+    count[band]++;
+    dirty = true;
+    return true;
+  }
+
+  /**
+   * Starts topping up the pool in the background. The pool is loaded from
+   * its file first, if that has not already been done.
+   */
+  public synchronized void start() {
+    if (!loaded) {
+      load();
+    }
+    if (refiller == null) {
+      generator.reset();
+      refiller = new Thread(this, "PuzzlePool");
+      refiller.setDaemon(true);
+      refiller.setPriority(Thread.MIN_PRIORITY);
+      refiller.start();
+    }
+  }
+
+  /**
+   * Stops topping up the pool, without waiting for the background thread.
+   * The thread stops shortly afterwards, and saves any changes as it
+   * finishes.
+   */
+  public void stop() {
+    synchronized (this) {
+      refiller = null;
+      notifyAll();
+    }
+    // kept by the generator if generation has not quite started
+    generator.cancel();
+  }
+
+  /**
+   * Tops up the pool until it is stopped, sleeping whenever every band is
+   * full. Only one band is generated for at a time, so no puzzle is made for
+   * a band that is already full. Any changes are saved when it stops.
+   */
+  public void run() {
+    GeneratedPuzzle[] results = new GeneratedPuzzle[1];
+    while (true) {
+      int band = -1;
+      synchronized (this) {
+        if (refiller != Thread.currentThread()) {
+          break;
+        }
+        for (int b = 0; (b < NUMBANDS) && (band < 0); b++) {
+          if (count[b] < puzzles[b].length) {
+            band = b;
+          }
+        }
+        if (band < 0) {
+          if (dirty) {
+            save();
+          }
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            refiller = null;
+          }
+          continue;
+        }
+      }
+      if (generator.generateBatch(1, band, band, 100000, true, results,
+          null, null) > 0) {
+        offer(results[0]);
+        save();
+      }
+    }
+    synchronized (this) {
+      if (dirty) {
+        save();
+      }
+    }
+  }
+
+  /**
+   * Loads the puzzles saved in the pool file, adding them to the pool.
+   *
+   * @return true if the file was read successfully
+   */
+  public synchronized boolean load() {
+    loaded = true;
+    if ((storeFile == null) || !storeFile.exists()) {
+      return false;
+    }
+    int[] tCells = new int[81];
+    byte[] tPacked = new byte[PackedPuzzle.MAXBYTES];
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(storeFile));
+      int tVersion = in.readByte();
+      if (tVersion != FILEVERSION) {
+        System.out.println("Puzzle pool file is an unknown version");
+        return false;
+      }
+      int numPuzzles = in.readShort();
+      for (int p = 0; p < numPuzzles; p++) {
+        int tDifficulty = in.readByte();
+        long tSeed = in.readLong();
+        in.readFully(tPacked, 0, PackedPuzzle.MASKBYTES);
+        int tLength = PackedPuzzle.packedLength(tPacked, 0);
+        if (tLength < 0) {
+          System.out.println("Puzzle pool file is damaged");
+          return false;
+        }
+        in.readFully(tPacked, PackedPuzzle.MASKBYTES,
+            tLength - PackedPuzzle.MASKBYTES);
+        if (PackedPuzzle.decode(tPacked, 0, tCells) < 0) {
+          System.out.println("Puzzle pool file is damaged");
+          return false;
+        }
+        GeneratedPuzzle tPuzzle = new GeneratedPuzzle(tCells, tDifficulty);
+        tPuzzle.seed = tSeed;
+        offer(tPuzzle);
+      }
+      dirty = false;
+      return true;
+    } catch (IOException e) {
+      System.out.println("Unable to load puzzle pool: " + e);
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close puzzle pool file");
+        }
+      }
+    }
+  }
+
+  /**
+   * Saves the puzzles in the pool to the pool file. The file is written
+   * under a temporary name first, so an interrupted save does not damage the
+   * previous copy.
+   *
+   * @return true if the file was written successfully
+   */
+  public synchronized boolean save() {
+    if (storeFile == null) {
+      dirty = false;
+      return true;
+    }
+    int numPuzzles = 0;
+    for (int b = 0; b < NUMBANDS; b++) {
+      numPuzzles += count[b];
+    }
+    File tempFile = new File(storeFile.getPath() + ".tmp");
+    byte[] tPacked = new byte[PackedPuzzle.MAXBYTES];
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new FileOutputStream(tempFile));
+      out.writeByte(FILEVERSION);
+      out.writeShort(numPuzzles);
+      for (int b = 0; b < NUMBANDS; b++) {
+        for (int p = 0; p < count[b]; p++) {
+          GeneratedPuzzle tPuzzle = puzzles[b][(head[b] + p)
+              % puzzles[b].length];
+          int[] tCells = tPuzzle.getCells();
+          out.writeByte(tPuzzle.getDifficulty());
+          out.writeLong(tPuzzle.getSeed());
+          out.write(tPacked, 0, PackedPuzzle.encode(tCells, tPacked, 0));
+        }
+      }
+      out.close();
+      out = null;
+      if (!tempFile.renameTo(storeFile)) {
+        storeFile.delete();
+        if (!tempFile.renameTo(storeFile)) {
+          System.out.println("Unable to replace puzzle pool file");
+          return false;
+        }
+      }
+      dirty = false;
+      return true;
+    } catch (IOException e) {
+      System.out.println("Unable to save puzzle pool: " + e);
+      return false;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close puzzle pool file");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of puzzle ratings, so that a puzzle that has already been rated
+ * doesn't need to be solved again. Ratings (the SolveReport from applying
+ * logic) are keyed by the hash of the canonical form of the puzzle, so a
+ * puzzle that has been rotated, reflected or relabelled is also found. The
+ * cache holds a limited number of ratings, and drops the least recently used
+ * rating when it is full. The cache can be saved to a file, with the most
+ * recently used ratings last, and reloaded in the next session.
+ * <p>
+ * Finding the canonical form takes about as long as rating a typical puzzle,
+ * so the cache also remembers which canonical form each board layout it has
+ * seen belongs to. A board that is rated again in the same layout is then
+ * found with a simple hash of its cells.
+ * </p>
+ * <p>
+ * Only boards where every cell is either a clue or blank (all candidates)
+ * are cached, as a board with candidates removed by hand can rate
+ * differently from the same clues on their own.
+ * </p>
+ *
+ * @author gringer
+ * @see CanonicalForm#hash(int[])
+ * @see Board#applyLogic(int, SolveReport)
+ */
+public class RatingCache {
+  /** Default number of ratings to keep */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private static final int FILEVERSION = 1;
+
+  private final File storeFile;
+
+  private final int capacity;
+
+  private final LinkedHashMap<Long, SolveReport> ratings;
+
+  /* hashes of board layouts, and the canonical hash of each one */
+  private final LinkedHashMap<Long, Long> layouts;
+
+  private final CanonicalForm canonical = new CanonicalForm();
+
+  private final int[] cells = new int[81];
+
+  private long hits, misses;
+
+  private boolean dirty;
+
+  /**
+   * Creates a cache that is not saved to a file.
+   *
+   * @param tCapacity
+   *           maximum number of ratings to keep
+   */
+  public RatingCache(int tCapacity) {
+    this(null, tCapacity);
+  }
+
+  /**
+   * Creates a cache that can be saved to a file.
+   *
+   * @param tFile
+   *           file that the cache is saved to (may be null, for a cache that
+   *           is not saved)
+   * @param tCapacity
+   *           maximum number of ratings to keep
+   */
+  public RatingCache(File tFile, int tCapacity) {
+    storeFile = tFile;
+    capacity = Math.max(1, tCapacity);
+    ratings = new LinkedHashMap<Long, SolveReport>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(Map.Entry<Long, SolveReport> eldest) {
+        return size() > capacity;
+      }
+    };
+    layouts = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Rates the puzzle on a board, up to a given logic level. If the puzzle
+   * (or one that is the same up to symmetry) has been rated before, the
+   * stored rating is used. Otherwise, logic is applied to the board and the
+   * rating is stored. Either way, the board is left as it was.
+   *
+   * @param tBoard
+   *           board holding the puzzle
+   * @param logLevel
+   *           maximum logic level to use
+   * @param tReport
+   *           report to fill with the rating
+   * @return true if the rating came from the cache
+   */
+  public synchronized boolean rate(Board tBoard, int logLevel,
+                                   SolveReport tReport) {
+    tBoard.staticSave(cells);
+    boolean cacheable = true;
+    for (int i = 0; cacheable && (i < 81); i++) {
+      cacheable = (cells[i] == 511)
+          || (Point.signature(cells[i]) == Point.SINGLE);
+    }
+    long tKey = 0;
+    if (cacheable) {
+      long tLayout = logLevel;
+      for (int i = 0; i < 81; i++) {
+        tLayout = SplitMix64.mix64(tLayout + cells[i]);
+      }
+      Long tCanonical = layouts.get(Long.valueOf(tLayout));
+      SolveReport tRating;
+      if (tCanonical != null) {
+        // the rating may have been dropped, but the key is still known
+        tKey = tCanonical.longValue();
+        tRating = ratings.get(tCanonical);
+      } else {
+        tKey = SplitMix64.mix64(canonical.hash(cells) + logLevel);
+        layouts.put(Long.valueOf(tLayout), Long.valueOf(tKey));
+        tRating = ratings.get(Long.valueOf(tKey));
+      }
+      if (tRating != null) {
+        hits++;
+        tReport.copy(tRating);
+        return true;
+      }
+    }
+    misses++;
+    int tMark = tBoard.mark();
+    tBoard.applyLogic(logLevel, tReport);
+    tBoard.rollback(tMark);
+    tBoard.release(tMark);
+    if (cacheable) {
+      SolveReport tRating = new SolveReport();
+      tRating.copy(tReport);
+      ratings.put(Long.valueOf(tKey), tRating);
+      dirty = true;
+    }
+    return false;
+  }
+
+  /**
+   * Rates the puzzle on a board, up to the maximum permissible logic level.
+   *
+   * @param tBoard
+   *           board holding the puzzle
+   * @param tReport
+   *           report to fill with the rating
+   * @return true if the rating came from the cache
+   * @see #rate(Board, int, SolveReport)
+   */
+  public boolean rate(Board tBoard, SolveReport tReport) {
+    return rate(tBoard, tBoard.LOGIC_MAX, tReport);
+  }
+
+  /**
+   * Retrieves the number of ratings held.
+   *
+   * @return number of ratings
+   */
+  public synchronized int size() {
+    return ratings.size();
+  }
+
+  /**
+   * Retrieves the number of ratings that were found in the cache.
+   *
+   * @return number of cache hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Retrieves the number of ratings that had to be worked out.
+   *
+   * @return number of cache misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Removes all ratings from the cache.
+   */
+  public synchronized void clear() {
+    dirty = dirty || !ratings.isEmpty();
+    ratings.clear();
+    layouts.clear();
+  }
+
+  /**
+   * Loads ratings from the cache file, adding them to any ratings already
+   * held.
+   *
+   * @return true if the file was read
+   */
+  public synchronized boolean load() {
+    if ((storeFile == null) || !storeFile.exists()) {
+      return false;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(storeFile));
+      int tVersion = in.readByte();
+      if ((tVersion < 1) || (tVersion > FILEVERSION)) {
+        System.out.println("Rating cache file is an unknown version");
+        return false;
+      }
+      int numRatings = in.readInt();
+      int numLevels = in.readByte();
+      for (int r = 0; r < numRatings; r++) {
+        long tKey = in.readLong();
+        SolveReport tRating = new SolveReport();
+        tRating.reset(in.readByte());
+        int tSignature = in.readByte();
+        for (int i = 0; i < numLevels; i++) {
+          int tCount = in.readInt();
+          if (i < tRating.opCounts.length) {
+            tRating.opCounts[i] = tCount;
+          }
+        }
+        tRating.finish(tSignature);
+        ratings.put(Long.valueOf(tKey), tRating);
+      }
+      return true;
+    } catch (IOException e) {
+      System.out.println("Unable to load rating cache: " + e);
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close rating cache file");
+        }
+      }
+    }
+  }
+
+  /**
+   * Saves the ratings to the cache file, if they have changed since they
+   * were last saved. The file is written to a temporary file first, and then
+   * renamed, so an interrupted save does not lose the previous file.
+   *
+   * @return true if the ratings were saved (or did not need saving)
+   */
+  public synchronized boolean save() {
+    if ((storeFile == null) || !dirty) {
+      dirty = false;
+      return true;
+    }
+    File tempFile = new File(storeFile.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new FileOutputStream(tempFile));
+      out.writeByte(FILEVERSION);
+      out.writeInt(ratings.size());
+      out.writeByte(Board.LOGIC_LIMIT);
+      Iterator<Map.Entry<Long, SolveReport>> tEntries =
+          ratings.entrySet().iterator();
+      while (tEntries.hasNext()) {
+        Map.Entry<Long, SolveReport> tEntry = tEntries.next();
+        SolveReport tRating = tEntry.getValue();
+        out.writeLong(tEntry.getKey().longValue());
+        out.writeByte(tRating.getLogLevel());
+        out.writeByte(tRating.getSignature());
+        for (int i = 0; i < Board.LOGIC_LIMIT; i++) {
+          out.writeInt((i < tRating.opCounts.length) ?
+              tRating.opCounts[i] : 0);
+        }
+      }
+      out.close();
+      out = null;
+      if (!tempFile.renameTo(storeFile)) {
+        storeFile.delete();
+        if (!tempFile.renameTo(storeFile)) {
+          System.out.println("Unable to replace rating cache file");
+          return false;
+        }
+      }
+      dirty = false;
+      return true;
+    } catch (IOException e) {
+      System.out.println("Unable to save rating cache: " + e);
+      return false;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close rating cache file");
+        }
+      }
+    }
+  }
+}
@@ -19,11 +19,21 @@
 
 package org.gringene.jmesudoyu.base;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class that describes / stores different data. This is primarily used for the
  * resources in j2me, but could also be used to save state for other versions.
  * The code has lots of error checking in it because it's not likely to be run
  * often, and it would be nice to be able to handle some kinds of data corruption.
+ * <p>
+ * Resources can be read from and written to a ByteBuffer holding any number of
+ * resources one after another. Reading a resource only moves the position of
+ * the buffer past it; the resource data is a view of the buffer rather than
+ * a copy, so a whole file of resources can be parsed without copying it.
+ * Writing puts the resource at the position of the buffer, so one buffer can
+ * be re-used to save many resources.
+ * </p>
  * 
  * @author gringer
  * 
@@ -39,11 +49,14 @@ public class SaveResource {
 
     public static int SAVEGAME = 3;
 
-    public static int MAXID = SaveResource.SAVEGAME;
+    public static int PACKEDBOARD = 4;
+
+    public static int MAXID = SaveResource.PACKEDBOARD;
 
     int resourceID;
 
-    byte[] resourceData;
+    /* view of the resource data, from index 0 to the limit */
+    ByteBuffer resourceData;
 
     public SaveResource() {
         resourceID = SaveResource.NA;
@@ -113,9 +126,9 @@ public class SaveResource {
      * @return true if the resource data was entered successfully.
      */
     public boolean setData(String[] keys, int[] values) {
-        byte[] keyBytes;
+        byte[][] keyBytes = new byte[keys.length][];
         int totalLength = 2; // array size: 2 bytes
-        boolean retVal = ((keys.length > 0) && (keys.length <= 1000) && 
+        boolean retVal = ((keys.length > 0) && (keys.length <= 1000) &&
                 (keys.length == values.length));
         if (this.resourceID != SaveResource.GAMESETTINGS) {
             retVal = false;
@@ -125,36 +138,31 @@ public class SaveResource {
                 if (keys[i].length() > 100) {
                     keys[i] = keys[i].substring(0, 100);
                 }
-                if (keys[i].length() == keys[i].getBytes().length) {
+                keyBytes[i] = keys[i].getBytes();
+                if (keys[i].length() == keyBytes[i].length) {
                     // length of string: 1 byte
                     // key: 1 byte per character (assured by above check)
                     // value: 4 bytes
-                    totalLength = totalLength + 1 + keys[i].length() + 4;
+                    totalLength = totalLength + 1 + keyBytes[i].length + 4;
                 } else {
                     retVal = false;
                 }
             }
         }
         if (retVal) {
-            this.resourceData = new byte[totalLength];
-            int currentPos = 0;
-            resourceData[currentPos++] = (byte) ((keys.length & 0xff00) >>> 8);
-            resourceData[currentPos++] = (byte) ((keys.length & 0x00ff) >>> 0);
+            ByteBuffer tData = ByteBuffer.allocate(totalLength);
+            tData.put((byte) ((keys.length & 0xff00) >>> 8));
+            tData.put((byte) ((keys.length & 0x00ff) >>> 0));
             for (int i = 0; i < keys.length; i++) {
-                keyBytes = keys[i].getBytes();
-                resourceData[currentPos++] = (byte) keyBytes.length;
-                for (int j = 0; j < keyBytes.length; j++) {
-                    resourceData[currentPos++] = keyBytes[j];
-                }
-                resourceData[currentPos++] = (byte) ((values[i] & 0xff000000) >>> 24);
-                resourceData[currentPos++] = (byte) ((values[i] & 0x00ff0000) >>> 16);
-                resourceData[currentPos++] = (byte) ((values[i] & 0x0000ff00) >>> 8);
-                resourceData[currentPos++] = (byte) ((values[i] & 0x000000ff) >>> 0);
-            }
-            if (currentPos != totalLength) {
-                this.resourceData = null;
-                retVal = false;
+                tData.put((byte) keyBytes[i].length);
+                tData.put(keyBytes[i]);
+                tData.put((byte) ((values[i] & 0xff000000) >>> 24));
+                tData.put((byte) ((values[i] & 0x00ff0000) >>> 16));
+                tData.put((byte) ((values[i] & 0x0000ff00) >>> 8));
+                tData.put((byte) ((values[i] & 0x000000ff) >>> 0));
             }
+            tData.flip();
+            this.resourceData = tData;
         }
         return retVal;
     }
@@ -179,29 +187,31 @@ public class SaveResource {
     public boolean getData(String[] keys, int[] values) {
         boolean retVal = true;
         char[] keyChars;
-        if (this.resourceID != SaveResource.GAMESETTINGS) {
+        if ((this.resourceID != SaveResource.GAMESETTINGS)
+                || (this.resourceData == null)) {
             retVal = false;
         }
         if (retVal) {
-            int keysLength = ((this.resourceData[0] & 0xff) << 8)
-                    | ((this.resourceData[1] & 0xff));
+            ByteBuffer tData = this.resourceData;
+            int keysLength = ((tData.get(0) & 0xff) << 8)
+                    | ((tData.get(1) & 0xff));
             keysLength = Math.min(Math.min(keys.length, values.length),
                     keysLength);
             int curPos = 2; // start after the key length bit
             for (int keyNum = 0; keyNum < keysLength; keyNum++) {
-                if (this.resourceData[curPos] <= 100) {
-                    keyChars = new char[resourceData[curPos]];
+                if (tData.get(curPos) <= 100) {
+                    keyChars = new char[tData.get(curPos)];
                     keys[keyNum] = "";
                     for (int i = 0; i < keyChars.length; i++) {
                         // could be data loss if the keys are not ASCII
-                        keyChars[i] = (char) this.resourceData[curPos + 1 + i];
+                        keyChars[i] = (char) tData.get(curPos + 1 + i);
                     }
                     keys[keyNum] = String.valueOf(keyChars);
                     curPos = curPos + 1 + keyChars.length;
-                    values[keyNum] = ((this.resourceData[curPos] & 0xff) << 24)
-                            | ((this.resourceData[curPos + 1] & 0xff) << 16)
-                            | ((this.resourceData[curPos + 2] & 0xff) << 8)
-                            | ((this.resourceData[curPos + 3] & 0xff));
+                    values[keyNum] = ((tData.get(curPos) & 0xff) << 24)
+                            | ((tData.get(curPos + 1) & 0xff) << 16)
+                            | ((tData.get(curPos + 2) & 0xff) << 8)
+                            | ((tData.get(curPos + 3) & 0xff));
                     curPos = curPos + 4;
                 }
             }
@@ -219,120 +229,234 @@ public class SaveResource {
     /**
      * Loads up a given game board into the resource data. This stores the org.gringene.jmesudoyu.base.Point
      * representation of the data as well as the flags associated with the
-     * Points.
+     * Points. If the resource ID is PACKEDBOARD, only the cells with a single
+     * number are stored, using the compact encoding of PackedPuzzle.
      * 
      * @param tBoard
      *            Board to extract org.gringene.jmesudoyu.base.Point information from
      * @return true if the resource data was entered successfully
      */
     public boolean setData(Board tBoard) {
-        this.resourceData = new byte[1 + Point.MAX * Point.MAX * 3];
-        this.resourceData[0] = (byte) Point.MAX;
-        byte[] boardData = new byte[Point.MAX * Point.MAX * 3];
-        tBoard.staticSave(boardData);
-        for (int i = 0; i < boardData.length; i++) {
-            this.resourceData[1 + i] = boardData[i];
+        if (this.resourceID == SaveResource.PACKEDBOARD) {
+            int[] boardData = new int[Point.MAX * Point.MAX];
+            tBoard.staticSave(boardData);
+            byte[] tData = new byte[PackedPuzzle.packedLength(boardData)];
+            PackedPuzzle.encode(boardData, tData, 0);
+            this.resourceData = ByteBuffer.wrap(tData);
+            return true;
         }
+        byte[] tData = new byte[1 + Point.MAX * Point.MAX * 3];
+        tData[0] = (byte) Point.MAX;
+        tBoard.staticSave(tData, 1);
+        this.resourceData = ByteBuffer.wrap(tData);
         return true;
     }
 
     /**
      * stores the resource data in a given game Board. This stores the org.gringene.jmesudoyu.base.Point
      * representation of the data as well as the flags associated with the
-     * Points.
+     * Points. A PACKEDBOARD resource only holds the cells with a single
+     * number, which are loaded as locked points, with every candidate at the
+     * other points.
      * 
      * @param tBoard
      *            Board to place org.gringene.jmesudoyu.base.Point information into
      * @return true if the resource data was entered successfully
      */
     public boolean getData(Board tBoard) {
-        boolean retVal = true;
+        boolean retVal = (this.resourceData != null);
         int tPMax = 0;
+        if (retVal && (this.resourceID == SaveResource.PACKEDBOARD)) {
+            int[] boardData = new int[Point.MAX * Point.MAX];
+            ByteBuffer tData = arrayData();
+            retVal = (PackedPuzzle.decode(tData.array(), tData.arrayOffset(),
+                    boardData) == tData.limit());
+            if (retVal) {
+                tBoard.staticLoad(boardData);
+                tBoard.lockBoard();
+            }
+            return retVal;
+        }
         if (this.resourceID != SaveResource.BOARDDATA) {
             retVal = false;
         }
         if (retVal) {
-            tPMax = this.resourceData[0];
+            tPMax = this.resourceData.get(0);
             retVal = (tPMax == Point.MAX);
         }
         if (retVal) {
-            byte[] boardData = new byte[tPMax * tPMax * 3];
-            if ((boardData.length + 1) == this.resourceData.length) {
-                for (int i = 0; i < boardData.length; i++) {
-                    boardData[i] = this.resourceData[i + 1];
-                }
-                tBoard.staticLoad(boardData);
+            if ((tPMax * tPMax * 3 + 1) == this.resourceData.limit()) {
+                ByteBuffer tData = arrayData();
+                tBoard.staticLoad(tData.array(), tData.arrayOffset() + 1);
             } else {
                 retVal = false;
             }
         }
         return retVal;
     }
+
+    /**
+     * Makes sure that the resource data can be reached as an array, copying
+     * it if it is held in a direct or read-only buffer.
+     * 
+     * @return a buffer holding the resource data, with an accessible array
+     */
+    private ByteBuffer arrayData() {
+        if (!this.resourceData.hasArray()) {
+            byte[] tData = new byte[this.resourceData.limit()];
+            this.resourceData.duplicate().get(tData);
+            this.resourceData = ByteBuffer.wrap(tData);
+        }
+        return this.resourceData;
+    }
+
+    /**
+     * Works out the number of bytes needed to save this resource, including
+     * the resource ID.
+     * 
+     * @return number of bytes that write(ByteBuffer) will use, or 0 if there
+     *         is nothing to save
+     */
+    public int getSaveLength() {
+        if ((this.resourceID == SaveResource.NA) || (this.resourceData == null)) {
+            return 0;
+        }
+        return SaveResource.IDLENGTH + this.resourceData.limit();
+    }
+
     /**
      * Saves a data resource to a byte array.
      * 
      * @return byte array containing the data from this org.gringene.jmesudoyu.base.SaveResource
      */
     public byte[] saveData(){
-        byte[] tRes = new byte[0];
-        if((this.resourceID != SaveResource.NA) && (this.resourceData != null)){
-            tRes = new byte[SaveResource.IDLENGTH + this.resourceData.length];
-            tRes[0] = (byte) ((resourceID & 0xff00) >>> 8);
-            tRes[1] = (byte) ((resourceID & 0x00ff));
-            for(int i = 0; i < this.resourceData.length; i++){
-                tRes[2+i] = this.resourceData[i];
-            }
-        }
+        byte[] tRes = new byte[getSaveLength()];
+        write(ByteBuffer.wrap(tRes));
         return tRes;
     }
+
+    /**
+     * Saves a data resource to a buffer, starting at its current position.
+     * The position is moved past the saved resource, so several resources can
+     * be written to the same buffer one after another.
+     * 
+     * @param out
+     *            buffer to write this org.gringene.jmesudoyu.base.SaveResource into
+     * @return true if the resource was written; false if there is nothing to
+     *         save or not enough room in the buffer
+     */
+    public boolean write(ByteBuffer out) {
+        int tLength = getSaveLength();
+        if ((tLength == 0) || (out.remaining() < tLength)) {
+            return false;
+        }
+        out.put((byte) ((resourceID & 0xff00) >>> 8));
+        out.put((byte) ((resourceID & 0x00ff)));
+        out.put(this.resourceData.duplicate());
+        return true;
+    }
+
     /**
      * Loads up a data resource from a byte array. The remainder (everything not
-     * consumed after the load is completed) is returned as a byte array.
+     * consumed after the load is completed) is returned as a byte array. The
+     * resource data refers to the given array, rather than being copied from
+     * it.
      * 
      * @param tData
      *            byte array containing data to load into this org.gringene.jmesudoyu.base.SaveResource
      * @return The remaining data after one org.gringene.jmesudoyu.base.SaveResource has been consumed
+     * @see #read(ByteBuffer)
      */
     public byte[] loadData(byte[] tData) {
         byte[] tRes = new byte[0];
+        ByteBuffer tBuffer = ByteBuffer.wrap(tData);
+        if (read(tBuffer)) {
+            tRes = new byte[tBuffer.remaining()];
+            tBuffer.get(tRes);
+        }
+        return tRes;
+    }
+
+    /**
+     * Loads up a data resource from a buffer, starting at its current
+     * position. If the resource is read successfully, the position is moved
+     * past it, so the next resource can be read straight away. No data is
+     * copied: the resource data is a view of the buffer, so the buffer should
+     * not be changed while this resource is in use.
+     * 
+     * @param in
+     *            buffer containing data to load into this org.gringene.jmesudoyu.base.SaveResource
+     * @return true if a complete resource was read
+     */
+    public boolean read(ByteBuffer in) {
+        int tStart = in.position();
         this.resourceData = null;
-        if (tData.length > SaveResource.IDLENGTH) {
-            this.resourceID = ((tData[0] & 0xff) << 8)
-                    | (tData[1] & 0xff);
+        if (in.remaining() > SaveResource.IDLENGTH) {
+            this.resourceID = ((in.get(tStart) & 0xff) << 8)
+                    | (in.get(tStart + 1) & 0xff);
         } else {
             this.resourceID = SaveResource.NA;
-            this.resourceData = null;
+            return false;
+        }
+        int tDataStart = tStart + SaveResource.IDLENGTH;
+        int tLength = dataLength(in, tDataStart);
+        if ((tLength <= 0) || (in.limit() - tDataStart < tLength)) {
+            return false;
+        }
+        ByteBuffer tView = in.duplicate();
+        tView.position(tDataStart);
+        tView.limit(tDataStart + tLength);
+        this.resourceData = tView.slice();
+        in.position(tDataStart + tLength);
+        return true;
+    }
+
+    /**
+     * Works out the length of the data of a resource with the current
+     * resource ID.
+     * 
+     * @param in
+     *            buffer containing the resource data
+     * @param tPos
+     *            position of the first byte of data in the buffer
+     * @return number of bytes of data, or -1 if the data is not valid
+     */
+    private int dataLength(ByteBuffer in, int tPos) {
+        int tLimit = in.limit();
+        if (tPos >= tLimit) {
+            return -1;
         }
         if (this.resourceID == SaveResource.BOARDDATA) {
-            int tPMax = tData[SaveResource.IDLENGTH] & 0xff;
-            this.resourceData = new byte[1 + tPMax * tPMax * 3];
-            for (int i = 0; i < this.resourceData.length; i++) {
-                this.resourceData[i] = tData[i + SaveResource.IDLENGTH];
+            int tPMax = in.get(tPos) & 0xff;
+            return 1 + tPMax * tPMax * 3;
+        } else if (this.resourceID == SaveResource.PACKEDBOARD) {
+            if (tLimit - tPos < PackedPuzzle.MASKBYTES) {
+                return -1;
+            }
+            byte[] tMask = new byte[PackedPuzzle.MASKBYTES];
+            for (int i = 0; i < tMask.length; i++) {
+                tMask[i] = in.get(tPos + i);
             }
+            return PackedPuzzle.packedLength(tMask, 0);
         } else if (this.resourceID == SaveResource.GAMESETTINGS) {
-            int keysLength = ((tData[SaveResource.IDLENGTH] & 0xff) << 8)
-                    | ((tData[SaveResource.IDLENGTH + 1] & 0xff));
+            if (tLimit - tPos < 2) {
+                return -1;
+            }
+            int keysLength = ((in.get(tPos) & 0xff) << 8)
+                    | ((in.get(tPos + 1) & 0xff));
             int totalLength = 2; // start after the key length bit
             for (int keyNum = 0; keyNum < keysLength; keyNum++) {
-                if (tData[totalLength + SaveResource.IDLENGTH] <= 100) {
-                    totalLength = totalLength + 1 + 
-                    tData[totalLength + SaveResource.IDLENGTH]+ 4; // size, string, value
+                if (tPos + totalLength >= tLimit) {
+                    return -1;
                 }
-            }
-            if((totalLength > 2) && (tData.length >= totalLength + SaveResource.IDLENGTH)){
-                this.resourceData = new byte[totalLength];
-                for(int i=0; i < totalLength; i++){
-                    this.resourceData[i] = tData[i+SaveResource.IDLENGTH];
+                int tKeyLength = in.get(tPos + totalLength);
+                if ((tKeyLength < 0) || (tKeyLength > 100)) {
+                    return -1;
                 }
+                totalLength = totalLength + 1 + tKeyLength + 4; // size, string, value
             }
+            return (totalLength > 2) ? totalLength : -1;
         }
-        if (this.resourceData != null) {
-            tRes = new byte[tData.length - SaveResource.IDLENGTH
-                    - resourceData.length];
-            for (int i = 0; i < tRes.length; i++) {
-                tRes[i] = tData[i + SaveResource.IDLENGTH + resourceData.length];
-            }
-        }
-        return tRes;
+        return -1;
     }
 }
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Saves a set of SaveResources (such as the game board and settings) to a
+ * single file, without making the caller wait for the file to be written.
+ * <p>
+ * A save only encodes the resources; the file is written by a background
+ * thread. If more saves are made before the file is written, only the latest
+ * one is written, and the writer waits for a short delay after a save before
+ * writing, so that a burst of saves results in a single write. The file is
+ * written under a temporary name, synced to the storage device, and then
+ * renamed over the previous copy, so an interrupted write never damages the
+ * last complete save. flush() waits for any pending save to be written, and
+ * should be called before the program exits.
+ * </p>
+ * <p>
+ * The file holds a version byte, the number of resources, the length of the
+ * resource data, the resources themselves (one after another, as written by
+ * SaveResource.write), and a CRC32 checksum of the resource data.
+ * </p>
+ *
+ * @author gringer
+ * @see SaveResource
+ */
+public class SaveStore implements Runnable {
+  /** Default time (in milliseconds) to wait after a save before writing */
+  public static final int DEFAULT_DELAY = 250;
+
+  private static final int FILEVERSION = 1;
+
+  private final File storeFile;
+
+  private int delay = DEFAULT_DELAY;
+
+  /* encoded resources of the latest save that has not been written yet */
+  private byte[] pending;
+
+  private int pendingCount;
+
+  private long pendingTime;
+
+  private boolean writing;
+
+  private int numFlushing;
+
+  private boolean lastWriteOK = true;
+
+  private int numSaves;
+
+  private int numWrites;
+
+  private Thread writer;
+
+  private boolean running;
+
+  /**
+   * Creates a store that saves to a given file.
+   *
+   * @param tFile
+   *           file that saves are written to
+   */
+  public SaveStore(File tFile) {
+    storeFile = tFile;
+  }
+
+  /**
+   * Changes how long the writer waits after a save before writing it. Saves
+   * made during this time are combined into a single write.
+   *
+   * @param tDelay
+   *           delay in milliseconds (0 to write as soon as possible)
+   */
+  public synchronized void setDelay(int tDelay) {
+    delay = Math.max(0, tDelay);
+    notifyAll();
+  }
+
+  /**
+   * Saves a set of resources. The resources are encoded straight away (so
+   * they can be changed as soon as this returns), and the file is written in
+   * the background.
+   *
+   * @param tResources
+   *           resources to save, in the order they should be loaded
+   */
+  public void save(SaveResource[] tResources) {
+    int tLength = 0;
+    int tCount = 0;
+    for (int i = 0; i < tResources.length; i++) {
+      if (tResources[i].getSaveLength() > 0) {
+        tLength += tResources[i].getSaveLength();
+        tCount++;
+      }
+    }
+    byte[] tData = new byte[tLength];
+    ByteBuffer tBuffer = ByteBuffer.wrap(tData);
+    for (int i = 0; i < tResources.length; i++) {
+      tResources[i].write(tBuffer);
+    }
+    synchronized (this) {
+      if (pending == null) {
+        pendingTime = System.currentTimeMillis();
+      }
+      pending = tData;
+      pendingCount = tCount;
+      numSaves++;
+      if (writer == null) {
+        running = true;
+        writer = new Thread(this, "SaveStore");
+        writer.setDaemon(true);
+        writer.start();
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+   * Waits until every save made so far has been written to the file.
+   *
+   * @return false if the most recent write failed (or the wait was
+   *         interrupted)
+   */
+  public synchronized boolean flush() {
+    numFlushing++;
+    notifyAll();
+    try {
+      while ((pending != null) || writing) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      numFlushing--;
+    }
+    return lastWriteOK;
+  }
+
+  /**
+   * Writes any pending save, then stops the background writer. The store
+   * can still be used afterwards; the writer is started again by the next
+   * save.
+   *
+   * @return false if the most recent write failed
+   */
+  public boolean close() {
+    boolean retVal = flush();
+    Thread tWriter;
+    synchronized (this) {
+      running = false;
+      tWriter = writer;
+      writer = null;
+      notifyAll();
+    }
+    if (tWriter != null) {
+      try {
+        tWriter.join(2000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Retrieves the number of saves made to this store.
+   *
+   * @return number of calls to save
+   */
+  public synchronized int getNumSaves() {
+    return numSaves;
+  }
+
+  /**
+   * Retrieves the number of times the file has been written. This is
+   * smaller than the number of saves when saves have been combined.
+   *
+   * @return number of file writes
+   */
+  public synchronized int getNumWrites() {
+    return numWrites;
+  }
+
+  /**
+   * Writes pending saves until the store is closed.
+   */
+  public void run() {
+    while (true) {
+      byte[] tData;
+      int tCount;
+      synchronized (this) {
+        try {
+          if (pending == null) {
+            if (!running) {
+              break;
+            }
+            wait();
+            continue;
+          }
+          long tWait = pendingTime + delay - System.currentTimeMillis();
+          if (running && (numFlushing == 0) && (tWait > 0)) {
+            wait(tWait);
+            continue;
+          }
+        } catch (InterruptedException e) {
+          running = false;
+          continue;
+        }
+        tData = pending;
+        tCount = pendingCount;
+        pending = null;
+        writing = true;
+      }
+      boolean tOK = writeFile(tData, tCount);
+      synchronized (this) {
+        writing = false;
+        lastWriteOK = tOK;
+        numWrites++;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Writes a set of encoded resources to the store file, replacing the
+   * previous copy only once the new one is safely on the storage device.
+   */
+  private boolean writeFile(byte[] tData, int tCount) {
+    File tempFile = new File(storeFile.getPath() + ".tmp");
+    FileOutputStream fos = null;
+    try {
+      fos = new FileOutputStream(tempFile);
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(fos));
+      CRC32 tCRC = new CRC32();
+      tCRC.update(tData, 0, tData.length);
+      out.writeByte(FILEVERSION);
+      out.writeInt(tCount);
+      out.writeInt(tData.length);
+      out.write(tData);
+      out.writeLong(tCRC.getValue());
+      out.flush();
+      fos.getFD().sync();
+      out.close();
+      fos = null;
+      if (!tempFile.renameTo(storeFile)) {
+        storeFile.delete();
+        if (!tempFile.renameTo(storeFile)) {
+          System.out.println("Unable to replace save file");
+          return false;
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      System.out.println("Unable to write save file: " + e);
+      return false;
+    } finally {
+      if (fos != null) {
+        try {
+          fos.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close save file");
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the resources from the store file. Saves that have not been
+   * written yet are not included, so flush() should be called first if
+   * there may be any.
+   *
+   * @return the saved resources, in the order they were saved (empty if
+   *         there is no save, or the file is damaged)
+   */
+  public SaveResource[] load() {
+    if (!storeFile.exists()) {
+      return new SaveResource[0];
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(storeFile));
+      int tVersion = in.readByte();
+      if ((tVersion < 1) || (tVersion > FILEVERSION)) {
+        System.out.println("Save file is an unknown version");
+        return new SaveResource[0];
+      }
+      int tCount = in.readInt();
+      int tLength = in.readInt();
+      if ((tCount < 0) || (tLength < 0) || (tLength > storeFile.length())) {
+        System.out.println("Save file is damaged");
+        return new SaveResource[0];
+      }
+      byte[] tData = new byte[tLength];
+      in.readFully(tData);
+      CRC32 tCRC = new CRC32();
+      tCRC.update(tData, 0, tData.length);
+      if (in.readLong() != tCRC.getValue()) {
+        System.out.println("Save file is damaged");
+        return new SaveResource[0];
+      }
+      ByteBuffer tBuffer = ByteBuffer.wrap(tData);
+      SaveResource[] tResources = new SaveResource[tCount];
+      for (int i = 0; i < tCount; i++) {
+        tResources[i] = new SaveResource();
+        if (!tResources[i].read(tBuffer)) {
+          System.out.println("Save file is damaged");
+          return new SaveResource[0];
+        }
+      }
+      return tResources;
+    } catch (IOException e) {
+      System.out.println("Unable to load save file: " + e);
+      return new SaveResource[0];
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          System.out.println("Unable to close save file");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Logic level 1: removes the number at a solved cell from the rest of its
+ * row, column and box. This is the flat equivalent of Point.clearOthers.
+ *
+ * @author gringer
+ * @see Point#clearOthers()
+ */
+public class SingleTechnique implements LogicTechnique {
+  public String getName() {
+    return "Single";
+  }
+
+  public int getLevel() {
+    return 1;
+  }
+
+  public int getCost() {
+    return 10;
+  }
+
+  public int getScope() {
+    return LogicTechnique.SCOPE_SOLVED;
+  }
+
+  public boolean apply(Propagator tProp, int pos) {
+    int tVal = tProp.getGrid().cells[pos];
+    boolean retVal = false;
+    if ((tVal != 0) && ((tVal & (tVal - 1)) == 0)) {
+      int[] peers = Grid.PEERS[pos];
+      for (int j = 0; (j < 20) && !tProp.hasContradiction(); j++) {
+        retVal = tProp.remove(peers[j], tVal) || retVal;
+      }
+    }
+    return retVal;
+  }
+}
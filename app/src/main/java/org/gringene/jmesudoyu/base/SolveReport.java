@@ -0,0 +1,166 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Results of applying logic to a board: the number of successful deductions
+ * made at each logic level, the signature of the board afterwards, and a
+ * difficulty rating derived from the hardest logic that was needed. A report
+ * can be passed to Board.applyLogic over and over again, so that rating or
+ * generating puzzles does not create any objects; the human-readable text is
+ * only produced when toString() is called.
+ *
+ * @author gringer
+ * @see Board#applyLogic(int, SolveReport)
+ */
+public class SolveReport {
+  public static final int GENTLE = 0;
+
+  public static final int MODERATE = 1;
+
+  public static final int HARD = 2;
+
+  public static final int TOUGH = 3;
+
+  public static final int FIENDISH = 4;
+
+  /** Names of the difficulty ratings, indexed by rating */
+  public static final String[] DIFFICULTY_NAMES = { "gentle", "moderate",
+      "hard", "tough", "fiendish" };
+
+  final int[] opCounts = new int[Board.LOGIC_LIMIT];
+
+  private int logLevel;
+
+  private int signature;
+
+  private int difficulty;
+
+  /**
+   * Clears the counts, ready for logic to be applied up to a given level.
+   *
+   * @param tLevel
+   *           maximum logic level that will be used
+   */
+  public void reset(int tLevel) {
+    logLevel = Math.min(Math.max(0, tLevel), opCounts.length);
+    for (int i = 0; i < opCounts.length; i++) {
+      opCounts[i] = 0;
+    }
+    signature = Point.MULTIPLE;
+    difficulty = GENTLE;
+  }
+
+  /**
+   * Records the final state of the board once logic has been applied, and
+   * works out the difficulty rating from the counts.
+   *
+   * @param tSignature
+   *           signature of the board after applying logic
+   */
+  public void finish(int tSignature) {
+    signature = tSignature;
+    // highest logic level that was needed
+    int tLevel = opCounts.length;
+    while ((tLevel > 0) && (opCounts[tLevel - 1] == 0)) {
+      tLevel--;
+    }
+    if (tLevel >= 6) {
+      difficulty = FIENDISH;
+    } else if (tLevel == 5) {
+      difficulty = TOUGH;
+    } else if (tLevel == 4) {
+      difficulty = HARD;
+    } else if (tLevel >= 2) {
+      difficulty = MODERATE;
+    } else {
+      difficulty = GENTLE;
+    }
+  }
+
+  /**
+   * Copies the contents of another report into this one.
+   *
+   * @param tReport
+   *           report to copy from
+   */
+  public void copy(SolveReport tReport) {
+    System.arraycopy(tReport.opCounts, 0, opCounts, 0, opCounts.length);
+    logLevel = tReport.logLevel;
+    signature = tReport.signature;
+    difficulty = tReport.difficulty;
+  }
+
+  /**
+   * Retrieves the number of successful deductions made at a logic level.
+   *
+   * @param tLevel
+   *           logic level (1 for the simplest logic)
+   * @return number of deductions at that level
+   */
+  public int getCount(int tLevel) {
+    return opCounts[tLevel - 1];
+  }
+
+  /**
+   * Retrieves the maximum logic level that was used.
+   *
+   * @return logic level
+   */
+  public int getLogLevel() {
+    return logLevel;
+  }
+
+  /**
+   * Retrieves the signature of the board after logic was applied.
+   *
+   * @return Point.BLANK, Point.SINGLE or Point.MULTIPLE
+   * @see Board#signature()
+   */
+  public int getSignature() {
+    return signature;
+  }
+
+  /**
+   * Retrieves the difficulty rating, based on the hardest logic level that
+   * was needed.
+   *
+   * @return one of GENTLE, MODERATE, HARD, TOUGH or FIENDISH
+   */
+  public int getDifficulty() {
+    return difficulty;
+  }
+
+  /**
+   * Produces the analysis text shown to the user, listing the number of
+   * deductions at each level, followed by the difficulty.
+   *
+   * @return analysis text
+   */
+  public String toString() {
+    StringBuffer retVal = new StringBuffer();
+    for (int i = 0; i < logLevel; i++) {
+      retVal.append("(").append(i + 1).append(",").append(opCounts[i])
+          .append(")");
+    }
+    retVal.append("\n\nDifficulty: ").append(DIFFICULTY_NAMES[difficulty]);
+    return retVal.toString();
+  }
+}
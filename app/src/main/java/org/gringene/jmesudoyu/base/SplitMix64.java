@@ -0,0 +1,144 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * A small, fast, splittable pseudo-random number generator (the SplitMix64
+ * algorithm, as used by java.util.SplittableRandom, which is not available
+ * on all of the platforms this runs on). A generator made from a given seed
+ * always produces the same sequence, and split() makes an independent
+ * generator for another thread or Board without any shared state, so runs
+ * using many generators can be reproduced from a single seed.
+ *
+ * @author gringer
+ * @see Board#setSeed(long)
+ */
+public class SplitMix64 {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /* distinguishes generators created at the same time without a seed */
+  private static long seedUniquifier = 0x2545f4914f6cdd1dL;
+
+  private long seed;
+
+  private final long gamma;
+
+  /**
+   * Creates a generator with a seed based on the current time.
+   */
+  public SplitMix64() {
+    this(defaultSeed());
+  }
+
+  /**
+   * Creates a generator with a given seed.
+   *
+   * @param tSeed
+   *           initial seed
+   */
+  public SplitMix64(long tSeed) {
+    this(tSeed, GOLDEN_GAMMA);
+  }
+
+  private SplitMix64(long tSeed, long tGamma) {
+    seed = tSeed;
+    gamma = tGamma;
+  }
+
+  private static synchronized long defaultSeed() {
+    seedUniquifier += GOLDEN_GAMMA;
+    return mix64(seedUniquifier ^ System.currentTimeMillis())
+        ^ mix64(System.nanoTime());
+  }
+
+  static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static int mix32(long z) {
+    z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+    return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+  }
+
+  private static long mixGamma(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    // avoid gammas with too few bit transitions
+    return (Long.bitCount(z ^ (z >>> 1)) < 24) ? (z ^ 0xaaaaaaaaaaaaaaaaL) : z;
+  }
+
+  /**
+   * Creates a new generator that shares no state with this one. The new
+   * generator depends only on the state of this one, so splitting is itself
+   * reproducible.
+   *
+   * @return a new generator
+   */
+  public SplitMix64 split() {
+    seed += gamma;
+    long tSeed = mix64(seed);
+    seed += gamma;
+    return new SplitMix64(tSeed, mixGamma(seed));
+  }
+
+  /**
+   * Produces the next 64-bit value.
+   *
+   * @return a pseudo-random long
+   */
+  public long nextLong() {
+    seed += gamma;
+    return mix64(seed);
+  }
+
+  /**
+   * Produces the next 32-bit value.
+   *
+   * @return a pseudo-random int
+   */
+  public int nextInt() {
+    seed += gamma;
+    return mix32(seed);
+  }
+
+  /**
+   * Produces a value between 0 (inclusive) and a bound (exclusive), with
+   * every value equally likely.
+   *
+   * @param bound
+   *           upper bound (must be positive)
+   * @return a pseudo-random int in the range [0, bound)
+   */
+  public int nextInt(int bound) {
+    int r = nextInt();
+    int m = bound - 1;
+    if ((bound & m) == 0) {
+      return r & m;
+    }
+    // reject values from the incomplete final block of the range
+    for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1) {
+      // try again
+    }
+    return r;
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Finds naked and hidden subsets within a single unit (row, column or box).
+ * <p>
+ * A naked subset is n unsolved cells whose candidates together contain only
+ * n numbers; those numbers can be removed from the rest of the unit. A hidden
+ * subset is n numbers that together can only go in n cells; all other
+ * numbers can be removed from those cells. For the unsolved part of a unit
+ * with m cells, a naked subset of size n always has a matching hidden subset
+ * of size (m - n), so only subsets up to half of the unsolved cells need to
+ * be tried in each form. This covers everything found by trying all 511
+ * combinations of positions, as Line.remSubsets used to do.
+ * </p>
+ * <p>
+ * Combinations are built up depth-first with the union kept incrementally,
+ * and a branch is abandoned as soon as its union holds more members than the
+ * largest subset being looked for. All working space is allocated with the
+ * finder, so it can be re-used without creating objects.
+ * </p>
+ *
+ * @author gringer
+ * @see Line#remSubsets()
+ */
+public class SubsetFinder {
+  private final int[] items = new int[9];
+
+  private final int[] cellPos = new int[9];
+
+  private final int[] itemNum = new int[9];
+
+  private final int[] stackItem = new int[10];
+
+  private final int[] stackUnion = new int[10];
+
+  private final int[] stackSet = new int[10];
+
+  /**
+   * Works out the candidates that can be removed from a unit because of naked
+   * or hidden subsets.
+   *
+   * @param tVals
+   *           bit-packed candidates of the 9 cells in the unit
+   * @param removals
+   *           filled with the bit-packed candidates to remove from each cell
+   * @return true if anything can be removed
+   */
+  public boolean find(int[] tVals, int[] removals) {
+    int numCells = 0;
+    int placed = 0;
+    for (int i = 0; i < 9; i++) {
+      removals[i] = 0;
+      if (Point.signature(tVals[i]) == Point.MULTIPLE) {
+        items[numCells] = tVals[i];
+        cellPos[numCells] = i;
+        numCells++;
+      } else {
+        placed |= tVals[i];
+      }
+    }
+    int maxSize = numCells / 2;
+    if (maxSize < 2) {
+      return false;
+    }
+    boolean found = false;
+    // naked subsets: unions of cell candidates
+    found = search(numCells, maxSize, tVals, removals, true) || found;
+    // hidden subsets: unions of the positions (among unsolved cells) of
+    // each number that has not yet been placed
+    int numDigits = 0;
+    for (int num = 0; num < 9; num++) {
+      if ((placed & (1 << num)) == 0) {
+        int posMask = 0;
+        for (int j = 0; j < numCells; j++) {
+          if ((tVals[cellPos[j]] & (1 << num)) != 0) {
+            posMask |= 1 << j;
+          }
+        }
+        items[numDigits] = posMask;
+        itemNum[numDigits] = num;
+        numDigits++;
+      }
+    }
+    found = search(numDigits, maxSize, tVals, removals, false) || found;
+    return found;
+  }
+
+  /**
+   * Depth-first search over combinations of 2..maxSize items, looking for a
+   * combination whose union has as many members as the combination.
+   */
+  private boolean search(int numItems, int maxSize, int[] tVals,
+                         int[] removals, boolean naked) {
+    boolean found = false;
+    int depth = 0;
+    stackItem[0] = -1;
+    stackUnion[0] = 0;
+    stackSet[0] = 0;
+    while (depth >= 0) {
+      int next = ++stackItem[depth];
+      if (next >= numItems) {
+        depth--;
+        continue;
+      }
+      int tUnion = stackUnion[depth] | items[next];
+      int tSize = depth + 1;
+      if ((tUnion == 0) || (Point.countBits(tUnion) > maxSize)) {
+        continue; // adding more items can only make the union larger
+      }
+      int tSet = stackSet[depth] | (1 << next);
+      if ((tSize >= 2) && (Point.countBits(tUnion) == tSize)) {
+        found = apply(tSet, tUnion, numItems, tVals, removals, naked)
+            || found;
+      }
+      if (tSize < maxSize) {
+        depth++;
+        stackItem[depth] = next;
+        stackUnion[depth] = tUnion;
+        stackSet[depth] = tSet;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Records the removals implied by a subset.
+   *
+   * @param tSet
+   *           bit-packed indexes of the items in the subset
+   * @param tUnion
+   *           union of those items
+   */
+  private boolean apply(int tSet, int tUnion, int numItems, int[] tVals,
+                        int[] removals, boolean naked) {
+    boolean retVal = false;
+    if (naked) {
+      // remove the union from every cell outside the subset
+      int inSubset = 0;
+      for (int j = 0; j < numItems; j++) {
+        if ((tSet & (1 << j)) != 0) {
+          inSubset |= 1 << cellPos[j];
+        }
+      }
+      for (int i = 0; i < 9; i++) {
+        if (((inSubset & (1 << i)) == 0)
+            && ((tVals[i] & tUnion & ~removals[i]) != 0)) {
+          removals[i] |= tVals[i] & tUnion;
+          retVal = true;
+        }
+      }
+    } else {
+      // restrict the cells in the union to the numbers in the subset
+      int tNums = 0;
+      for (int j = 0; j < numItems; j++) {
+        if ((tSet & (1 << j)) != 0) {
+          tNums |= 1 << itemNum[j];
+        }
+      }
+      for (int j = 0; j < 9; j++) {
+        if ((tUnion & (1 << j)) != 0) {
+          int i = cellPos[j];
+          if ((tVals[i] & ~tNums & ~removals[i]) != 0) {
+            removals[i] |= tVals[i] & ~tNums;
+            retVal = true;
+          }
+        }
+      }
+    }
+    return retVal;
+  }
+}
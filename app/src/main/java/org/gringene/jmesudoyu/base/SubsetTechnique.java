@@ -0,0 +1,70 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * Logic level 5: removes candidates because of naked or hidden subsets
+ * within a row, column or box. This is the flat equivalent of
+ * Line.remSubsets.
+ *
+ * @author gringer
+ * @see Line#remSubsets()
+ * @see SubsetFinder
+ */
+public class SubsetTechnique implements LogicTechnique {
+  private final int[] tempVals = new int[9];
+
+  private final int[] tempRems = new int[9];
+
+  private final SubsetFinder subsets = new SubsetFinder();
+
+  public String getName() {
+    return "Subset";
+  }
+
+  public int getLevel() {
+    return 5;
+  }
+
+  public int getCost() {
+    return 50;
+  }
+
+  public int getScope() {
+    return LogicTechnique.SCOPE_UNIT;
+  }
+
+  public boolean apply(Propagator tProp, int u) {
+    int[] unit = Grid.UNITS[u];
+    int[] cells = tProp.getGrid().cells;
+    boolean retVal = false;
+    for (int j = 0; j < 9; j++) {
+      tempVals[j] = cells[unit[j]];
+    }
+    if (subsets.find(tempVals, tempRems)) {
+      for (int j = 0; (j < 9) && !tProp.hasContradiction(); j++) {
+        if (tempRems[j] != 0) {
+          retVal = tProp.remove(unit[j], tempRems[j]) || retVal;
+        }
+      }
+    }
+    return retVal;
+  }
+}
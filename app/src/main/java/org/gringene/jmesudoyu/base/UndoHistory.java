@@ -0,0 +1,242 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.base;
+
+/**
+ * A bounded undo / redo history for a game board that only stores the cells
+ * changed by each step.
+ * <p>
+ * The history keeps a copy of the board as it was at the end of the last
+ * step. commit(Board) compares the board with this copy, and records every
+ * cell that differs as a single int entry holding the cell index, the old
+ * and new candidates, and the old and new locked state. The entries are kept
+ * in a ring, with the first entry of each step flagged, so undoing or redoing
+ * a step only touches the cells that the step changed. When the ring is
+ * full, the oldest steps are dropped to make room.
+ * </p>
+ * <p>
+ * undo(Board) and redo(Board) commit any changes made since the last step
+ * first, so a caller only needs to commit before each action that should be
+ * undone separately. Changes committed after an undo discard the steps that
+ * could have been redone.
+ * </p>
+ *
+ * @author gringer
+ * @see Commander#doCommand(String)
+ */
+public class UndoHistory {
+  /** Default number of changed cells to keep (4 bytes each) */
+  public static final int DEFAULT_CAPACITY = 2048;
+
+  private static final int OLDSHIFT = 7;
+
+  private static final int NEWSHIFT = 16;
+
+  private static final int OLDLOCKED = 1 << 25;
+
+  private static final int NEWLOCKED = 1 << 26;
+
+  private static final int STEPSTART = 1 << 27;
+
+  private static final int LOCKED = 0x200;
+
+  private final int[] entries;
+
+  private final int mask;
+
+  /* start of the oldest step, end of the last undoable step, and end of the
+   * last redoable step (positions wrap around the ring) */
+  private int first, current, last;
+
+  private int undoSteps, redoSteps;
+
+  /* candidates (and locked flag) of each cell at the end of the last step */
+  private final int[] cells = new int[81];
+
+  private final int[] changes = new int[81];
+
+  /**
+   * Creates an empty history.
+   *
+   * @param tCapacity
+   *           number of changed cells to keep (rounded up to a power of two,
+   *           and at least one whole board)
+   */
+  public UndoHistory(int tCapacity) {
+    int tSize = 128;
+    while (tSize < tCapacity) {
+      tSize <<= 1;
+    }
+    entries = new int[tSize];
+    mask = tSize - 1;
+  }
+
+  /**
+   * Forgets all steps, and starts recording from the current state of a
+   * board. This should be done when the board is replaced by one that
+   * shouldn't be undone, such as when a saved game is loaded.
+   *
+   * @param tBoard
+   *           board to record steps for
+   */
+  public void clear(Board tBoard) {
+    first = current = last = 0;
+    undoSteps = redoSteps = 0;
+    for (int i = 0; i < 81; i++) {
+      cells[i] = state(tBoard.board[i]);
+    }
+  }
+
+  /**
+   * Records the changes made to a board since the last step as a new step.
+   * Nothing is recorded if the board hasn't changed.
+   *
+   * @param tBoard
+   *           board to record changes for
+   * @return number of cells changed in the step
+   */
+  public int commit(Board tBoard) {
+    int tCount = 0;
+    for (int i = 0; i < 81; i++) {
+      int tState = state(tBoard.board[i]);
+      int tOld = cells[i];
+      if (tState != tOld) {
+        changes[tCount++] = i | ((tOld & 0x1ff) << OLDSHIFT)
+            | ((tState & 0x1ff) << NEWSHIFT)
+            | (((tOld & LOCKED) != 0) ? OLDLOCKED : 0)
+            | (((tState & LOCKED) != 0) ? NEWLOCKED : 0);
+        cells[i] = tState;
+      }
+    }
+    if (tCount == 0) {
+      return 0;
+    }
+    discardRedo();
+    while (current + tCount - first > entries.length) {
+      do {
+        first++;
+      } while ((first != current)
+          && ((entries[first & mask] & STEPSTART) == 0));
+      undoSteps--;
+    }
+    changes[0] |= STEPSTART;
+    for (int i = 0; i < tCount; i++) {
+      entries[(current + i) & mask] = changes[i];
+    }
+    current += tCount;
+    last = current;
+    undoSteps++;
+    return tCount;
+  }
+
+  /**
+   * Returns a board to how it was before the last step. Changes made since
+   * the last step are committed first, so they are the step that is undone.
+   *
+   * @param tBoard
+   *           board to undo the step on
+   * @return false if there is no step to undo
+   */
+  public boolean undo(Board tBoard) {
+    commit(tBoard);
+    if (undoSteps == 0) {
+      return false;
+    }
+    int tEntry;
+    do {
+      current--;
+      tEntry = entries[current & mask];
+      apply(tBoard, tEntry & 0x7f, (tEntry >>> OLDSHIFT) & 0x1ff,
+          (tEntry & OLDLOCKED) != 0);
+    } while ((tEntry & STEPSTART) == 0);
+    undoSteps--;
+    redoSteps++;
+    tBoard.journalBoard();
+    return true;
+  }
+
+  /**
+   * Makes the last undone step again. Nothing is redone if the board has
+   * been changed since the step was undone.
+   *
+   * @param tBoard
+   *           board to redo the step on
+   * @return false if there is no step to redo
+   */
+  public boolean redo(Board tBoard) {
+    commit(tBoard);
+    if (redoSteps == 0) {
+      return false;
+    }
+    do {
+      int tEntry = entries[current & mask];
+      apply(tBoard, tEntry & 0x7f, (tEntry >>> NEWSHIFT) & 0x1ff,
+          (tEntry & NEWLOCKED) != 0);
+      current++;
+    } while ((current != last) && ((entries[current & mask] & STEPSTART) == 0));
+    redoSteps--;
+    undoSteps++;
+    tBoard.journalBoard();
+    return true;
+  }
+
+  /**
+   * Forgets the steps that have been undone, so they can't be redone.
+   */
+  public void discardRedo() {
+    last = current;
+    redoSteps = 0;
+  }
+
+  /**
+   * Retrieves the number of steps that can be undone.
+   *
+   * @return number of steps before the current one
+   */
+  public int getUndoSteps() {
+    return undoSteps;
+  }
+
+  /**
+   * Retrieves the number of steps that can be redone.
+   *
+   * @return number of undone steps
+   */
+  public int getRedoSteps() {
+    return redoSteps;
+  }
+
+  /**
+   * Sets the candidates and locked state of a cell, keeping the copy of the
+   * board up to date.
+   */
+  private void apply(Board tBoard, int tIndex, int tVal, boolean tLocked) {
+    tBoard.board[tIndex].setExact(tVal);
+    tBoard.board[tIndex].setLocked(tLocked);
+    cells[tIndex] = tVal | (tLocked ? LOCKED : 0);
+  }
+
+  /**
+   * Retrieves the candidates of a point, with the locked flag above them.
+   */
+  private static int state(Point tPoint) {
+    return (tPoint.getValue() & 0x1ff) | (tPoint.getLocked() ? LOCKED : 0);
+  }
+}
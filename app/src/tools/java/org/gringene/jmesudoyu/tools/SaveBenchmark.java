@@ -0,0 +1,102 @@
+/*
+ * Copyright 2005-2014 David Hall (gringer)
+ *
+ *  This file is part of JMeSudoYu, a Java sudoku Solver/Puzzle generator
+ *  with an emphasis on easily portable code for java-capable cellphones
+ *  (originally j2me, hence the name).
+ *
+ *  JMeSudoYu is free software: you can redistribute it and/or modify
+ *  it under the terms of the ISC license.
+ *
+ *  JMeSudoYu is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  ISC License for more details.
+ *
+ *  You should have received a copy of the ISC License
+ *  along with JMeSudoYu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gringene.jmesudoyu.tools;
+
+import java.nio.ByteBuffer;
+
+import org.gringene.jmesudoyu.base.Board;
+import org.gringene.jmesudoyu.base.GlobalVar;
+import org.gringene.jmesudoyu.base.PuzzleGenerator;
+import org.gringene.jmesudoyu.base.SaveResource;
+
+/**
+ * Measures the speed of saving and restoring games with SaveResource. This
+ * is a desktop tool, and is not part of the app; it is compiled against the
+ * classes in org.gringene.jmesudoyu.base and run from the command line:
+ * <pre>
+ * SaveBenchmark [games]
+ * </pre>
+ *
+ * @author gringer
+ * @see SaveResource
+ */
+public class SaveBenchmark {
+  /**
+   * Measures the speed of saving and restoring games through a single
+   * re-used buffer. Each game is a BOARDDATA resource for a board and a
+   * GAMESETTINGS resource; every game is saved one after another, then all
+   * of them are read back and restored into the board.
+   *
+   * @param tBoard
+   *           board to save and restore (its state is kept)
+   * @param numGames
+   *           number of games to save and restore
+   * @return a human-readable summary of the time taken
+   */
+  public static String benchmark(Board tBoard, int numGames) {
+    String[] keys = {"ExpertMode"};
+    int[] values = {1};
+    SaveResource tBoardRes = new SaveResource();
+    SaveResource tSettingsRes = new SaveResource();
+    tBoardRes.setID(SaveResource.BOARDDATA);
+    tBoardRes.setData(tBoard);
+    tSettingsRes.setID(SaveResource.GAMESETTINGS);
+    tSettingsRes.setData(keys, values);
+    ByteBuffer tBuffer = ByteBuffer.allocate(numGames
+        * (tBoardRes.getSaveLength() + tSettingsRes.getSaveLength()));
+    long startTime = System.nanoTime();
+    for (int g = 0; g < numGames; g++) {
+      tBoardRes.setData(tBoard);
+      tBoardRes.write(tBuffer);
+      tSettingsRes.setData(keys, values);
+      tSettingsRes.write(tBuffer);
+    }
+    long saveTime = System.nanoTime() - startTime;
+    tBuffer.flip();
+    int numRestored = 0;
+    startTime = System.nanoTime();
+    while (tBoardRes.read(tBuffer) && tSettingsRes.read(tBuffer)) {
+      if (tBoardRes.getData(tBoard) && tSettingsRes.getData(keys, values)) {
+        numRestored++;
+      }
+    }
+    long loadTime = System.nanoTime() - startTime;
+    return "saved " + numGames + " games (" + tBuffer.limit() + " bytes) in "
+        + (saveTime / 1000000) + "ms, "
+        + (numGames * 1000000000L / Math.max(1, saveTime)) + " games/s\n"
+        + "restored " + numRestored + " games in "
+        + (loadTime / 1000000) + "ms, "
+        + (numRestored * 1000000000L / Math.max(1, loadTime)) + " games/s\n";
+  }
+
+  /**
+   * Runs the save / restore benchmark on a generated puzzle.
+   *
+   * @param args
+   *           command line arguments (the number of games, default 100000)
+   */
+  public static void main(String[] args) {
+    int numGames = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+    Board tBoard = new Board();
+    PuzzleGenerator.makePuzzle(tBoard, 1, 100000, true, new GlobalVar(),
+        new GlobalVar());
+    System.out.print(benchmark(tBoard, numGames));
+  }
+}